@@ -8,4 +8,22 @@ public class Prefs {
 		Hours_24
 	}
 	public static final String FORMAT_HOURS = "format.hours";
+	
+	public static final String RETRIEVER_WORKERS = "retriever.workers";
+	public static final int DEFAULT_RETRIEVER_WORKERS = 4;
+	public static final String RETRIEVER_MAX_PER_HOST = "retriever.max_per_host";
+	public static final int DEFAULT_RETRIEVER_MAX_PER_HOST = 2;
+	public static final String RETRIEVER_SPOOL_TO_FILE = "retriever.spool_to_file";
+	// stop reading a feed after this many entries in a row are already stored (0 reads every entry)
+	public static final String RETRIEVER_STOP_AFTER_KNOWN = "retriever.stop_after_known";
+	public static final int DEFAULT_RETRIEVER_STOP_AFTER_KNOWN = 10;
+	
+	// how long, in seconds, to keep entries of feeds that don't say (0 keeps them forever)
+	public static final String RETENTION_EXPIRE_AFTER = "retention.expire_after";
+	public static final long DEFAULT_RETENTION_EXPIRE_AFTER = 30 * 24 * 60 * 60;
+	public static final String RETENTION_KEEP_UNREAD = "retention.keep_unread";
+	public static final boolean DEFAULT_RETENTION_KEEP_UNREAD = true;
+	// how long, in seconds, to remember deleted entries so they aren't retrieved again
+	public static final String RETENTION_TOMBSTONE_EXPIRE_AFTER = "retention.tombstone_expire_after";
+	public static final long DEFAULT_RETENTION_TOMBSTONE_EXPIRE_AFTER = 90 * 24 * 60 * 60;
 }
@@ -27,6 +27,10 @@ import ca.luniv.afr.widget.ListSectionManager.Range;
 import ca.luniv.afr.widget.ListSectionManager.Range.EndpointType;
 
 public class Utils {
+	// 64 bit FNV-1a parameters
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
 	public static final String[] DEFAULT_12H_DATE_FORMATS = {
 		"h:mm aa",
 		"EEE h:mm aa",
@@ -127,4 +131,19 @@ public class Utils {
 		
 		return ranges;		
 	}
+	
+	/**
+	 * Hashes a URI down to 64 bits (FNV-1a over its characters), for when there's no need to keep the URI itself.
+	 * @param uri the URI to hash
+	 * @return the URI's hash
+	 */
+	public static long hashUri(String uri) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < uri.length(); i++) {
+			char c = uri.charAt(i);
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+		}
+		return hash;
+	}
 }
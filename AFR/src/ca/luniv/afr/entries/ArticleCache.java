@@ -0,0 +1,176 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.entries;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.ContentURI;
+import android.os.Handler;
+import ca.luniv.afr.provider.Afr;
+import ca.luniv.afr.service.ArticleRenderer;
+
+/**
+ * Keeps the most recently viewed (and prefetched) entries ready to show. The cache is bounded by the
+ * total size of the pages in it rather than by how many there are, since one long entry can weigh as
+ * much as dozens of short ones; the least recently used entries go first. The whole cache is dropped 
+ * whenever what an entry shows changes, or entries are deleted, so it never shows a stale page.
+ */
+public final class ArticleCache {
+	/**
+	 * An entry, ready to be shown.
+	 */
+	public static final class Article {
+		public final long id;
+		public final String title;
+		public final String page;
+
+		Article(long id, String title, String page) {
+			this.id = id;
+			this.title = title;
+			this.page = page;
+		}
+	}
+
+	// in characters, so about twice that in bytes
+	static final int MAX_SIZE = 256 * 1024;
+
+	private static final String[] projection = {
+		Afr.Entries.TITLE,
+		Afr.Entries.RENDERED
+	};
+
+	// only needed for entries stored before they were rendered as they were retrieved
+	private static final String[] contentProjection = {
+		Afr.Entries.CONTENT,
+		Afr.Entries.TYPE,
+		Afr.Entries.LINK
+	};
+
+	private static ArticleCache instance;
+
+	// in access order, so the eldest entry is the least recently used
+	private final LinkedHashMap<Long, Article> articles = new LinkedHashMap<Long, Article>(16, 0.75f, true);
+	private int size;
+	// bumped whenever the cache is dropped, so an entry loaded from before then isn't put back into it
+	private int generation;
+
+	private ArticleCache() {
+	}
+
+	/**
+	 * Must first be called on a thread with a looper (the UI thread), which hears of changes to the entries.
+	 */
+	public static synchronized ArticleCache getInstance(Context context) {
+		if (instance == null) {
+			instance = new ArticleCache();
+			context.getContentResolver().registerContentObserver(Afr.Entries.CONTENTS_CHANGED_URI, false, 
+					new ContentObserver(new Handler()) {
+				@Override
+				public void onChange(boolean selfChange) {
+					instance.clear();
+				}
+			});
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the entry, from the cache if it's there, otherwise loaded (and cached); null if there is no such entry
+	 */
+	public Article get(ContentResolver resolver, long id) {
+		int loadedGeneration;
+		synchronized (this) {
+			Article article = articles.get(id);
+			if (article != null) {
+				return article;
+			}
+			loadedGeneration = generation;
+		}
+
+		// loaded outside the lock, so a prefetch doesn't hold up the entry being shown
+		Article article = load(resolver, id);
+		if (article != null) {
+			put(article, loadedGeneration);
+		}
+		return article;
+	}
+
+	/**
+	 * @return if the entry is in the cache
+	 */
+	public synchronized boolean contains(long id) {
+		return articles.containsKey(id);
+	}
+
+	private synchronized void clear() {
+		articles.clear();
+		size = 0;
+		generation++;
+	}
+
+	private synchronized void put(Article article, int loadedGeneration) {
+		int articleSize = article.page.length();
+		if (articleSize > MAX_SIZE || loadedGeneration != generation) {
+			return;
+		}
+
+		Article old = articles.put(article.id, article);
+		if (old != null) {
+			size -= old.page.length();
+		}
+		size += articleSize;
+
+		Iterator<Map.Entry<Long, Article>> i = articles.entrySet().iterator();
+		while (size > MAX_SIZE && i.hasNext()) {
+			size -= i.next().getValue().page.length();
+			i.remove();
+		}
+	}
+
+	private static Article load(ContentResolver resolver, long id) {
+		ContentURI uri = Afr.Entries.CONTENT_URI.addId(id);
+		Cursor c = resolver.query(uri, projection, null, null, null);
+		try {
+			if (!c.first()) {
+				return null;
+			}
+
+			String title = c.getString(0);
+			String page = c.getString(1);
+			if (page == null) {
+				Cursor content = resolver.query(uri, contentProjection, null, null, null);
+				try {
+					if (!content.first()) {
+						return null;
+					}
+					page = ArticleRenderer.render(title, content.getString(0), content.getString(1), content.getString(2));
+				} finally {
+					content.close();
+				}
+			}
+
+			return new Article(id, title, page);
+		} finally {
+			c.close();
+		}
+	}
+}
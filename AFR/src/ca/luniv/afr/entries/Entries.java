@@ -19,8 +19,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import android.app.ListActivity;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -29,6 +31,7 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.net.ContentURI;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.View;
@@ -47,7 +50,9 @@ import ca.luniv.afr.Prefs.HourFormat;
 import ca.luniv.afr.provider.Afr;
 import ca.luniv.afr.provider.Afr.FeedsColumns;
 import ca.luniv.afr.widget.ListSectionManager;
+import ca.luniv.afr.widget.LongSectionManager;
 import ca.luniv.afr.widget.SectionedListAdapter;
+import ca.luniv.afr.widget.StringSectionManager;
 import ca.luniv.afr.widget.ListSectionManager.Group;
 import ca.luniv.afr.widget.ListSectionManager.Range;
 import ca.luniv.afr.widget.SectionedListAdapter.ListSection;
@@ -63,10 +68,64 @@ public class Entries extends ListActivity {
 	
     public static final int SORT_DATE = Menu.FIRST;
     public static final int SORT_AUTHOR = Menu.FIRST + 1;
+    public static final int MARK_ALL_READ = Menu.FIRST + 2;
+    
+    // feeds with more entries than this are listed a page at a time
+    static final int PAGED_THRESHOLD = 500;
+    // how close to either end of the loaded entries the list can get before the page past it is loaded
+    static final int PREFETCH_ROWS = 20;
 	
     private long feedId;
     private Cursor cursor;
+    private String sortOrder = EntryPager.SORT_ORDER;
     private HourFormat hourFormat;
+    private ReadStateWriter readStateWriter;
+    
+    // only set while a big feed is listed by date
+    private EntryPager pager;
+    private boolean pageRequested;
+    // the entry that was being drawn when the page was asked for, kept in view if the loaded entries shift
+    private long pageAnchor;
+    private final Handler handler = new Handler();
+    private final ContentObserver pageObserver = new PageObserver();
+    private final Runnable loadNextPage = new Runnable() {
+    	public void run() {
+    		pageRequested = false;
+    		if (pager != null && pager.hasMore()) {
+    			long first = pager.firstId();
+    			showPage(pager.nextPage());
+    			// the first page was dropped to make room
+    			if (pager.firstId() != first) {
+    				keepInView(pageAnchor);
+    			}
+    		}
+    	}
+    };
+    private final Runnable loadPreviousPage = new Runnable() {
+    	public void run() {
+    		pageRequested = false;
+    		if (pager != null && pager.hasPrevious()) {
+    			showPage(pager.previousPage());
+    			keepInView(pageAnchor);
+    		}
+    	}
+    };
+    
+    /**
+     * Reloads the pages when the entries change, as the list would be requeried if it weren't paged.
+     */
+    private class PageObserver extends ContentObserver {
+    	public PageObserver() {
+    		super(new Handler());
+    	}
+    	
+    	@Override
+    	public void onChange(boolean selfChange) {
+    		if (pager != null) {
+    			showPage(pager.reload());
+    		}
+    	}
+    }
     
 	@Override
     public void onCreate(Bundle icicle) {
@@ -74,6 +133,7 @@ public class Entries extends ListActivity {
 		
         // 12 or 24 hour format?
         hourFormat = HourFormat.values()[getPreferences(0).getInt(Prefs.FORMAT_HOURS, 0)];
+        readStateWriter = ReadStateWriter.getInstance(this);
         
         // override the default selector so we don't get the unwanted list padding
         getListView().setSelector(R.drawable.list_highlight_background_blue);
@@ -82,20 +142,100 @@ public class Entries extends ListActivity {
         		(String) getIntent().getExtra(Afr.Feeds.NAME));
     }
 	
+	@Override
+	protected void onResume() {
+		super.onResume();
+		
+		// entries read since the list was last drawn may not be written out yet, so redraw them as read
+		SectionedListAdapter adapter = (SectionedListAdapter) getListView().getAdapter();
+		if (adapter != null) {
+			adapter.notifyDataSetChanged();
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		// leaving the feed, so write out whatever has been read
+		readStateWriter.flush();
+		closePager();
+		super.onDestroy();
+	}
+	
 	private void setupListAdapter(long feedId, String feedName) {
+		if (this.feedId != feedId) {
+			readStateWriter.flush();
+		}
 		this.feedId = feedId;
 		setTitle(feedName + " - " + getText(R.string.app_shortname));
 		
+		showByDate();
+	}
+	
+	/**
+	 * Lists the feed's entries newest first. Feeds with more than {@link #PAGED_THRESHOLD} entries are 
+	 * loaded a page at a time, as the list is scrolled, rather than all before the list is shown; only the 
+	 * pages near where the list is are kept.
+	 */
+	private void showByDate() {
 		ContentURI queryURI = Afr.Feeds.CONTENT_URI.addId(feedId).addPath("entries");
-        cursor = managedQuery(queryURI, itemsProjection, null, null, Afr.Entries.DEFAULT_SORT_ORDER);
-		
-		SectionedListAdapter adapter = (SectionedListAdapter) getListView().getAdapter();
-		if (adapter == null) {
-			List<Range<Long>> ranges = Utils.makeDateRanges();
-	        setListAdapter(new ItemsListAdapter(this, cursor, new ListSectionManager<Long>(this, Afr.Entries.DATE, ranges, Long.class)));
+		closePager();
+		// the id breaks ties whether paged or not, so the viewer can step through the list in the same order
+		sortOrder = EntryPager.SORT_ORDER;
+		if (countEntries() > PAGED_THRESHOLD) {
+			pager = new EntryPager(getContentResolver(), queryURI, itemsProjection);
+			cursor = pager.nextPage();
+			cursor.registerContentObserver(pageObserver);
 		} else {
-			adapter.changeCursor(cursor);
+	        cursor = managedQuery(queryURI, itemsProjection, null, null, sortOrder);
 		}
+		
+		// the sections are counted for a particular feed, and a paged list isn't requeried, so the adapter is made anew
+		List<Range<Long>> ranges = Utils.makeDateRanges();
+        setListAdapter(new ItemsListAdapter(this, cursor, pager == null, makeDateSectionManager(ranges)));
+	}
+	
+	private int countEntries() {
+		Cursor c = getContentResolver().query(Afr.Feeds.CONTENT_URI.addId(feedId), 
+				new String[] { FeedsColumns.TOTAL_COUNT }, null, null, null);
+		try {
+			return c.first() ? c.getInt(0) : 0;
+		} finally {
+			c.close();
+		}
+	}
+	
+	/**
+	 * Swaps in the entries the pager has loaded.
+	 */
+	private void showPage(Cursor page) {
+		Cursor old = cursor;
+		old.unregisterContentObserver(pageObserver);
+		
+		cursor = page;
+		cursor.registerContentObserver(pageObserver);
+		((SectionedListAdapter) getListView().getAdapter()).changeCursor(cursor);
+		old.close();
+	}
+	
+	/**
+	 * Moves the list back to the entry, after the entries before it changed.
+	 */
+	private void keepInView(long entryId) {
+		int position = ((SectionedListAdapter) getListView().getAdapter()).getPosition(entryId);
+		if (position != -1) {
+			getListView().setSelection(position);
+		}
+	}
+	
+	private void closePager() {
+		if (pager != null) {
+			cursor.unregisterContentObserver(pageObserver);
+			cursor.close();
+			pager = null;
+		}
+		handler.removeCallbacks(loadNextPage);
+		handler.removeCallbacks(loadPreviousPage);
+		pageRequested = false;
 	}
 	
 	@Override
@@ -149,6 +289,9 @@ public class Entries extends ListActivity {
     	
     	Intent intent = new Intent(this, EntryViewer.class);
     	intent.putExtra(Afr.Feeds._ID, id);
+    	// so the viewer can move on to the next entry in the list
+    	intent.putExtra(Afr.Entries.FEED, feedId);
+    	intent.putExtra(EntryViewer.SORT_ORDER, sortOrder);
     	startSubActivity(intent, 0);
     }
     
@@ -161,6 +304,8 @@ public class Entries extends ListActivity {
         if (haveItems) {
             menu.add(Menu.SELECTED_ALTERNATIVE, SORT_AUTHOR, "Sort by author");
             menu.add(Menu.SELECTED_ALTERNATIVE, SORT_DATE, "Sort by date");
+            menu.addSeparator(Menu.SELECTED_ALTERNATIVE, 0);
+            menu.add(Menu.SELECTED_ALTERNATIVE, MARK_ALL_READ, "Mark all read");
         }
         
         return result;
@@ -172,22 +317,25 @@ public class Entries extends ListActivity {
 		
     	switch (item.getId()) {
     	case SORT_DATE: {
-    		List<Range<Long>> ranges = Utils.makeDateRanges();
-
-            cursor = managedQuery(queryURI, itemsProjection, null, null, Afr.Entries.DEFAULT_SORT_ORDER);
-            
-            setListAdapter(new ItemsListAdapter(this, cursor, 
-            		new ListSectionManager<Long>(this, Afr.Entries.DATE, ranges, Long.class)));
+    		showByDate();
     	}
     	break;
     	case SORT_AUTHOR: {
+    		// entries aren't paged by author, so this is always the whole feed
+    		closePager();
     		List<Group<String>> groups = makeAuthorGroups();
 
-            cursor = managedQuery(queryURI, itemsProjection, null, null, 
-            		"lower(" + Afr.EntriesColumns.AUTHOR + ") ASC, " + Afr.EntriesColumns.DATE + " DESC");
+            sortOrder = EntryViewer.AUTHOR_SORT_ORDER;
+            cursor = managedQuery(queryURI, itemsProjection, null, null, sortOrder);
             
-            setListAdapter(new ItemsListAdapter(this, cursor, 
-            		new ListSectionManager<String>(this, Afr.Entries.AUTHOR, groups, String.class)));
+            setListAdapter(new ItemsListAdapter(this, cursor, true, makeAuthorSectionManager(groups)));
+    	}
+    	break;
+    	case MARK_ALL_READ: {
+    		// one update for the whole feed; the list is refreshed by the provider's notification
+    		ContentValues values = new ContentValues();
+    		values.put(Afr.Entries.READ, true);
+    		getContentResolver().update(queryURI.addPath("read_state"), values, null, null);
     	}
     	break;
     	}
@@ -195,6 +343,22 @@ public class Entries extends ListActivity {
         return super.onOptionsItemSelected(item);
     }
     
+    private LongSectionManager makeDateSectionManager(List<Range<Long>> ranges) {
+    	LongSectionManager sectionManager = new LongSectionManager(this, Afr.Entries.DATE, ranges);
+    	// the database counts the entries in each section, so the list doesn't have to read them all first 
+    	// (a paged list only has some of them, and its sections are only for those)
+    	if (pager == null) {
+    		sectionManager.setSectionCounter(new EntrySectionCounter<Long>(getContentResolver(), feedId, Afr.Entries.DATE));
+    	}
+    	return sectionManager;
+    }
+    
+    private StringSectionManager makeAuthorSectionManager(List<Group<String>> groups) {
+    	StringSectionManager sectionManager = new StringSectionManager(this, Afr.Entries.AUTHOR, groups);
+    	sectionManager.setSectionCounter(new EntrySectionCounter<String>(getContentResolver(), feedId, Afr.Entries.AUTHOR));
+    	return sectionManager;
+    }
+    
     private List<Group<String>> makeAuthorGroups() {
     	ArrayList<Group<String>> groups = new ArrayList<Group<String>>();
 		
@@ -213,13 +377,40 @@ public class Entries extends ListActivity {
     }
     
     public class ItemsListAdapter extends SectionedListAdapter {
-    	public <T extends Comparable<T>> ItemsListAdapter(Context context, Cursor cursor, ListSectionManager<T> sectionManager) {
-    		super(context, cursor, sectionManager);
+    	public <T extends Comparable<T>> ItemsListAdapter(Context context, Cursor cursor, boolean autoRequery, 
+    			ListSectionManager<T> sectionManager) {
+    		super(context, cursor, autoRequery, sectionManager);
+    	}
+    	
+    	@Override
+    	public View getView(int position, View convertView, ViewGroup parent) {
+    		View view = super.getView(position, convertView, parent);
+    		
+    		// nearly out of entries at either end, so load the page past it (once the list is done laying itself out)
+    		if (pager != null && !pageRequested) {
+    			Object item = getItem(position);
+    			if (item instanceof Cursor) {
+    				Cursor c = (Cursor) item;
+    				Runnable load = null;
+    				if (pager.hasMore() && c.position() >= c.count() - PREFETCH_ROWS) {
+    					load = loadNextPage;
+    				} else if (pager.hasPrevious() && c.position() < PREFETCH_ROWS) {
+    					load = loadPreviousPage;
+    				}
+    				if (load != null) {
+    					pageRequested = true;
+    					pageAnchor = c.getLong(0);
+    					handler.post(load);
+    				}
+    			}
+    		}
+    		
+    		return view;
     	}
 
     	@Override
     	public void bindView(Context context, Cursor cursor, View view) {
-    		boolean read = cursor.getInt(4) != 0;
+    		boolean read = cursor.getInt(4) != 0 || readStateWriter.isPending(cursor.getLong(0));
     		
     		view.setPadding(10, 0, 10, 0);
     		
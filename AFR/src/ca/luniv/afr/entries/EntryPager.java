@@ -0,0 +1,221 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.entries;
+
+import java.util.ArrayList;
+
+import android.content.ContentResolver;
+import android.database.ArrayListCursor;
+import android.database.Cursor;
+import android.net.ContentURI;
+import ca.luniv.afr.provider.Afr;
+
+/**
+ * Loads a feed's entries a page at a time, newest first, for feeds too big to query all at once. Each 
+ * page picks up after the last entry of the one before, by its date and id (rather than skipping over 
+ * the entries already loaded with an OFFSET), so a page costs the same however far down the list it is. 
+ * Only a window of up to {@link #MAX_PAGES} pages is kept: pages far from where the list is are dropped, 
+ * and loaded again from the entries either side of the window as the list gets back to them. The cursors 
+ * handed out hold the whole window, so the list's sections carry on across its pages.
+ */
+public final class EntryPager {
+	static final int PAGE_SIZE = 100;
+	// how many pages are kept loaded at once, so scrolling through a big feed doesn't use more and more memory
+	static final int MAX_PAGES = 5;
+	
+	/**
+	 * The order the pages come in; the id breaks ties between entries posted at the same time, so no entry 
+	 * is skipped or repeated at a page boundary.
+	 */
+	public static final String SORT_ORDER = Afr.Entries.DATE + " DESC, " + Afr.Entries._ID + " DESC";
+	// the pages before the window are loaded the other way, from the first entry up
+	private static final String REVERSE_SORT_ORDER = Afr.Entries.DATE + " ASC, " + Afr.Entries._ID + " ASC";
+	private static final String AFTER_LAST = "(" + Afr.Entries.DATE + " < ? OR (" + Afr.Entries.DATE + " = ? AND " + 
+		Afr.Entries._ID + " < ?))";
+	private static final String BEFORE_FIRST = "(" + Afr.Entries.DATE + " > ? OR (" + Afr.Entries.DATE + " = ? AND " + 
+		Afr.Entries._ID + " > ?))";
+	private static final String FROM_FIRST = "(" + Afr.Entries.DATE + " < ? OR (" + Afr.Entries.DATE + " = ? AND " + 
+		Afr.Entries._ID + " <= ?))";
+	
+	private final ContentResolver resolver;
+	private final ContentURI uri;
+	private final String[] projection;
+	private final int idColumn;
+	private final int dateColumn;
+	
+	private final ArrayList<ArrayList> rows = new ArrayList<ArrayList>();
+	private boolean more = true;
+	private boolean previous;
+	
+	/**
+	 * @param uri the entries to page through, e.g. <code>feeds/#/entries</code>
+	 * @param projection the columns to load; these have to include the id and date
+	 */
+	public EntryPager(ContentResolver resolver, ContentURI uri, String[] projection) {
+		this.resolver = resolver;
+		this.uri = uri;
+		this.projection = projection;
+		this.idColumn = indexOf(projection, Afr.Entries._ID);
+		this.dateColumn = indexOf(projection, Afr.Entries.DATE);
+	}
+	
+	/**
+	 * @return if there may be entries past the ones loaded
+	 */
+	public boolean hasMore() {
+		return more;
+	}
+	
+	/**
+	 * @return if there are entries before the ones loaded (dropped as the list moved on)
+	 */
+	public boolean hasPrevious() {
+		return previous;
+	}
+	
+	/**
+	 * @return the number of entries loaded
+	 */
+	public int count() {
+		return rows.size();
+	}
+	
+	/**
+	 * @return the id of the first entry loaded, or -1 if there are none
+	 */
+	public long firstId() {
+		return rows.isEmpty() ? -1 : key(0, idColumn);
+	}
+	
+	/**
+	 * Loads the next page of entries, dropping the first page if there are too many.
+	 * @return the entries loaded
+	 */
+	public Cursor nextPage() {
+		if (more) {
+			String[] args = null;
+			String selection = null;
+			if (!rows.isEmpty()) {
+				selection = AFTER_LAST;
+				args = keyArgs(rows.size() - 1);
+			}
+			
+			more = load(selection, args, PAGE_SIZE, false) == PAGE_SIZE;
+			int excess = rows.size() - PAGE_SIZE * MAX_PAGES;
+			if (excess > 0) {
+				rows.subList(0, excess).clear();
+				previous = true;
+			}
+		}
+		
+		return makeCursor();
+	}
+	
+	/**
+	 * Loads the page of entries before the ones loaded, dropping the last page if there are too many.
+	 * @return the entries loaded
+	 */
+	public Cursor previousPage() {
+		if (previous && !rows.isEmpty()) {
+			previous = load(BEFORE_FIRST, keyArgs(0), PAGE_SIZE, true) == PAGE_SIZE;
+			int excess = rows.size() - PAGE_SIZE * MAX_PAGES;
+			if (excess > 0) {
+				rows.subList(rows.size() - excess, rows.size()).clear();
+				more = true;
+			}
+		}
+		
+		return makeCursor();
+	}
+	
+	/**
+	 * Loads the entries loaded again, from the first of them, for when they've changed. New entries push 
+	 * the last ones out, to be loaded again with the next page (or, above the window, show up with the 
+	 * previous page).
+	 * @return the reloaded entries
+	 */
+	public Cursor reload() {
+		int loaded = Math.max(rows.size(), PAGE_SIZE);
+		String selection = null;
+		String[] args = null;
+		if (previous && !rows.isEmpty()) {
+			selection = FROM_FIRST;
+			args = keyArgs(0);
+		}
+		rows.clear();
+		more = load(selection, args, loaded, false) == loaded;
+		
+		return makeCursor();
+	}
+	
+	/**
+	 * @param before if the entries are before the ones loaded (and come back in reverse)
+	 * @return the number of entries loaded
+	 */
+	@SuppressWarnings("unchecked")
+	private int load(String selection, String[] args, int limit, boolean before) {
+		Cursor c = resolver.query(Afr.Entries.limit(uri, limit), projection, selection, args, 
+				before ? REVERSE_SORT_ORDER : SORT_ORDER);
+		int loaded = 0;
+		try {
+			while (c.next()) {
+				ArrayList<Object> row = new ArrayList<Object>(projection.length);
+				for (int i = 0; i < projection.length; i++) {
+					row.add(c.getString(i));
+				}
+				if (before) {
+					rows.add(0, row);
+				} else {
+					rows.add(row);
+				}
+				loaded++;
+			}
+		} finally {
+			c.close();
+		}
+		
+		return loaded;
+	}
+	
+	/**
+	 * @return the date, date and id of the loaded entry, for picking up from it
+	 */
+	private String[] keyArgs(int row) {
+		String date = Long.toString(key(row, dateColumn));
+		return new String[] { date, date, Long.toString(key(row, idColumn)) };
+	}
+	
+	private long key(int row, int column) {
+		return Long.parseLong((String) rows.get(row).get(column));
+	}
+	
+	private Cursor makeCursor() {
+		// a copy of the rows, so loading the next page doesn't change a cursor that's in use
+		Cursor c = new ArrayListCursor(projection, new ArrayList<ArrayList>(rows));
+		// changes to the entries are seen as they would be by a query of the whole feed
+		c.setNotificationUri(resolver, uri);
+		return c;
+	}
+	
+	private static int indexOf(String[] projection, String column) {
+		for (int i = 0; i < projection.length; i++) {
+			if (projection[i].equals(column)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("The projection has no " + column + " column");
+	}
+}
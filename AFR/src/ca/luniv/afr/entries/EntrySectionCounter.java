@@ -0,0 +1,138 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.entries;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import ca.luniv.afr.provider.Afr;
+import ca.luniv.afr.widget.SectionCounter;
+import ca.luniv.afr.widget.ListSectionManager.Group;
+import ca.luniv.afr.widget.ListSectionManager.ListSectionGroup;
+import ca.luniv.afr.widget.ListSectionManager.Range;
+import ca.luniv.afr.widget.ListSectionManager.Range.EndpointType;
+
+/**
+ * Counts a feed's entries in each section with a single aggregate query, rather than walking the 
+ * entries. The provider numbers the range each entry falls in from the ranges' bounds; groups are 
+ * counted by the column's value. Sections made up of anything else aren't counted.
+ */
+public class EntrySectionCounter<T extends Comparable<T>> implements SectionCounter<T> {
+	private final ContentResolver resolver;
+	private final long feedId;
+	private final String column;
+	
+	/**
+	 * @param column the column the entries are sectioned by (one of {@link Afr.Sections#COLUMNS})
+	 */
+	public EntrySectionCounter(ContentResolver resolver, long feedId, String column) {
+		this.resolver = resolver;
+		this.feedId = feedId;
+		this.column = column;
+	}
+
+	@SuppressWarnings("unchecked")
+	public int[] countSections(List<? extends ListSectionGroup<T>> sectionGroups) {
+		if (sectionGroups.isEmpty()) {
+			return null;
+		}
+		
+		boolean ranges = sectionGroups.get(0) instanceof Range;
+		for (ListSectionGroup<T> sectionGroup : sectionGroups) {
+			if (ranges ? !(sectionGroup instanceof Range) : !(sectionGroup instanceof Group)) {
+				return null;
+			}
+		}
+		
+		if (ranges) {
+			return countRanges((List<? extends Range<T>>) sectionGroups);
+		}
+		return countGroups((List<? extends Group<T>>) sectionGroups);
+	}
+	
+	private int[] countRanges(List<? extends Range<T>> ranges) {
+		// each entry is counted in the first range it falls in, as it would be walking the entries
+		StringBuilder endpoints = new StringBuilder(ranges.size() * 2);
+		ArrayList<String> bounds = new ArrayList<String>(ranges.size() * 2);
+		for (Range<T> range : ranges) {
+			endpoints.append(endpoint(range.startType));
+			if (range.startType != EndpointType.INFINITE) {
+				bounds.add(String.valueOf(range.start));
+			}
+			endpoints.append(endpoint(range.endType));
+			if (range.endType != EndpointType.INFINITE) {
+				bounds.add(String.valueOf(range.end));
+			}
+		}
+		
+		int[] counts = new int[ranges.size()];
+		Cursor c = resolver.query(Afr.Sections.ranges(feedId, column, endpoints.toString()), null, null, 
+				bounds.toArray(new String[bounds.size()]), null);
+		try {
+			while (c.next()) {
+				int range = c.getInt(0);
+				if (range < 0) {
+					// an entry outside every range; the caller falls back to walking the entries
+					return null;
+				}
+				counts[range] = c.getInt(1);
+			}
+		} finally {
+			c.close();
+		}
+		
+		return counts;
+	}
+	
+	private int[] countGroups(List<? extends Group<T>> groups) {
+		HashMap<String, Integer> positions = new HashMap<String, Integer>();
+		for (int i = 0; i < groups.size(); i++) {
+			T group = groups.get(i).group;
+			positions.put(group == null ? null : group.toString(), i);
+		}
+		
+		int[] counts = new int[groups.size()];
+		Cursor c = resolver.query(Afr.Sections.groups(feedId, column), null, null, null, null);
+		try {
+			while (c.next()) {
+				Integer group = positions.get(c.getString(0));
+				if (group == null) {
+					// a value with no group (the groups are out of date)
+					return null;
+				}
+				counts[group] = c.getInt(1);
+			}
+		} finally {
+			c.close();
+		}
+		
+		return counts;
+	}
+	
+	private static char endpoint(EndpointType type) {
+		switch (type) {
+		case INCLUDED:
+			return Afr.Sections.INCLUDED;
+		case EXCLUDED:
+			return Afr.Sections.EXCLUDED;
+		default:
+			return Afr.Sections.UNBOUNDED;
+		}
+	}
+}
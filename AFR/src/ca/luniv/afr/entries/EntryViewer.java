@@ -15,49 +15,298 @@
  */
 package ca.luniv.afr.entries;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
 import android.app.Activity;
-import android.content.ContentValues;
+import android.content.ContentResolver;
 import android.database.Cursor;
+import android.net.ContentURI;
 import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.view.KeyEvent;
 import android.webkit.WebView;
 import ca.luniv.afr.R;
+import ca.luniv.afr.entries.ArticleCache.Article;
 import ca.luniv.afr.provider.Afr;
+import ca.luniv.afr.service.ArticleRenderer;
 
 public class EntryViewer extends Activity {	
-	private long entryId;
+	/**
+	 * The sort order of the entries list the entry was opened from (with the feed id in 
+	 * {@link Afr.Entries#FEED}), so the previous and next entries can be shown and prefetched; either 
+	 * {@link EntryPager#SORT_ORDER} or {@link #AUTHOR_SORT_ORDER}
+	 */
+	public static final String SORT_ORDER = "sort_order";
+	
+	private static final String AUTHOR_KEY = "ifnull(lower(" + Afr.Entries.AUTHOR + "), '')";
+	/**
+	 * The order of an entries list sorted by author; the date and id break ties, so each entry has a 
+	 * place of its own to move on from.
+	 */
+	public static final String AUTHOR_SORT_ORDER = AUTHOR_KEY + " ASC, " + EntryPager.SORT_ORDER;
+	
+	// the entries either side of the one shown are found from its place in the list rather than by loading 
+	// the whole list: the arguments are the entry's (author,) date, date and id
+	private static final String EARLIER = "(" + Afr.Entries.DATE + " < ? OR (" + Afr.Entries.DATE + " = ? AND " + 
+		Afr.Entries._ID + " < ?))";
+	private static final String LATER = "(" + Afr.Entries.DATE + " > ? OR (" + Afr.Entries.DATE + " = ? AND " + 
+		Afr.Entries._ID + " > ?))";
+	private static final String NEXT_BY_AUTHOR = "(" + AUTHOR_KEY + " > ? OR (" + AUTHOR_KEY + " = ? AND " + EARLIER + "))";
+	private static final String PREVIOUS_BY_AUTHOR = "(" + AUTHOR_KEY + " < ? OR (" + AUTHOR_KEY + " = ? AND " + LATER + "))";
+	private static final String PREVIOUS_BY_DATE_ORDER = Afr.Entries.DATE + " ASC, " + Afr.Entries._ID + " ASC";
+	private static final String PREVIOUS_BY_AUTHOR_ORDER = AUTHOR_KEY + " DESC, " + PREVIOUS_BY_DATE_ORDER;
+	
+	private static final String[] keyProjection = {
+		Afr.Entries.DATE,
+		AUTHOR_KEY,
+		Afr.Entries.READ
+	};
+	private static final String[] idProjection = {
+		Afr.Entries._ID
+	};
+	
+	// entries are loaded, and their neighbours prefetched, on one thread shared by all the viewers, so 
+	// the UI thread never waits on the database; only the latest entry is worth loading, so anything 
+	// still waiting is dropped for it
+	private static final BlockingQueue<Runnable> loads = new LinkedBlockingQueue<Runnable>();
+	private static Thread loader;
+	
+	/**
+	 * An entry loaded to be shown: its place in the list, if it still has to be marked read, and its page.
+	 */
+	private static final class LoadedEntry {
+		long id;
+		long date;
+		String author;
+		boolean read;
+		Article article;
+	}
+	
+	private final Handler handler = new Handler();
+	// counts the entries asked for, so only the latest one asked for is shown once loaded
+	private int requests;
+	private long entryId = -1;
+	private long entryDate;
+	private String entryAuthor;
+	// the entries of the list the entry was opened from (null if it wasn't opened from one)
+	private ContentURI entriesUri;
+	private boolean byAuthor;
+	private ArticleCache cache;
+	private ReadStateWriter readStateWriter;
+	private WebView webView;
 	
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
         setContentView(R.layout.entry_view);
         
-        entryId = (Long) getIntent().getExtra(Afr.EntriesColumns._ID);
-        Cursor c = managedQuery(Afr.Entries.CONTENT_URI.addId(entryId), null, null, null, null);
-        c.first();
-        
-        setTitle(c.getString(c.getColumnIndex(Afr.Entries.TITLE)) + " - " + getText(R.string.app_shortname));
-        
-        // mark the item as read
-        ContentValues values = new ContentValues();
-        values.put(Afr.Entries.READ, Boolean.TRUE);
-        getContentResolver().update(Afr.Entries.CONTENT_URI.addId(entryId), values, null, null);
-        
-        // TODO: template or make configurable
-        StringBuilder post = new StringBuilder();
-        post.append("<html>");
-        post.append("<head>");
-        post.append("<title>").append(c.getString(c.getColumnIndex(Afr.Entries.TITLE))).append("</title>");
-        post.append("<style type=\"text/css\"> body { background-color: #201c19 !important; color: white !important; } a { color: orange !important; } </style>");
-        post.append("</head>");
-        post.append("<body>");
-        post.append(c.getString(c.getColumnIndex(Afr.Entries.CONTENT)));
-        post.append("</body>");
-        post.append("</html>");
-        
-        WebView webView = (WebView) findViewById(R.id.entry);
+        cache = ArticleCache.getInstance(this);
+        readStateWriter = ReadStateWriter.getInstance(this);
+        webView = (WebView) findViewById(R.id.entry);
         // XXX: this doesn't work for some reason
         //webView.setBackground(null);
-        webView.loadData(post.toString(), "text/html", "utf-8");
         
+        Long feedId = (Long) getIntent().getExtra(Afr.Entries.FEED);
+        if (feedId != null) {
+        	entriesUri = Afr.Feeds.CONTENT_URI.addId(feedId).addPath("entries");
+        	byAuthor = AUTHOR_SORT_ORDER.equals(getIntent().getExtra(SORT_ORDER));
+        }
+        
+        show((Long) getIntent().getExtra(Afr.EntriesColumns._ID));
     }
+	
+	@Override
+	public boolean onKeyDown(int keyCode, KeyEvent event) {
+		if ((keyCode == KeyEvent.KEYCODE_DPAD_LEFT || keyCode == KeyEvent.KEYCODE_DPAD_RIGHT) && entriesUri != null) {
+			if (entryId != -1) {
+				load(-1, keyCode == KeyEvent.KEYCODE_DPAD_RIGHT);
+			}
+			return true;
+		}
+		
+		return super.onKeyDown(keyCode, event);
+	}
+	
+	private void show(long id) {
+		load(id, false);
+	}
+	
+	/**
+	 * Loads an entry in the background and shows it once it's loaded: the one with the given id, or if 
+	 * that's -1, the one after (or before) the entry shown. A placeholder is shown meanwhile if the 
+	 * entry isn't cached.
+	 */
+	private void load(final long id, final boolean next) {
+		final int request = ++requests;
+		final ContentResolver resolver = getContentResolver();
+		final ContentURI uri = entriesUri;
+		final boolean byAuthor = this.byAuthor;
+		final String author = entryAuthor;
+		final long date = entryDate;
+		final long shownId = entryId;
+		submit(new Runnable() {
+			public void run() {
+				long loadId = id;
+				if (loadId == -1) {
+					loadId = findNeighbour(resolver, uri, byAuthor, next, author, date, shownId);
+					if (loadId == -1) {
+						return;
+					}
+				}
+				
+				if (!cache.contains(loadId)) {
+					handler.post(new Runnable() {
+						public void run() {
+							showPlaceholder(request);
+						}
+					});
+				}
+				
+				final LoadedEntry entry = loadEntry(resolver, loadId);
+				handler.post(new Runnable() {
+					public void run() {
+						show(request, entry);
+					}
+				});
+			}
+		}, true);
+	}
+	
+	/**
+	 * @return the entry, or null if there is no such entry
+	 */
+	private LoadedEntry loadEntry(ContentResolver resolver, long id) {
+		LoadedEntry entry = new LoadedEntry();
+		entry.id = id;
+		
+		// the entry's place in the list, and if it still has to be marked read
+		Cursor c = resolver.query(Afr.Entries.CONTENT_URI.addId(id), keyProjection, null, null, null);
+		try {
+			if (!c.first()) {
+				return null;
+			}
+			entry.date = c.getLong(0);
+			entry.author = c.getString(1);
+			entry.read = c.getInt(2) != 0;
+		} finally {
+			c.close();
+		}
+		
+		entry.article = cache.get(resolver, id);
+		return entry.article != null ? entry : null;
+	}
+	
+	private void showPlaceholder(int request) {
+		if (request != requests) {
+			return;
+		}
+		
+		CharSequence loading = getText(R.string.entry_loading);
+		setTitle(loading + " - " + getText(R.string.app_shortname));
+		webView.loadData(ArticleRenderer.render(loading.toString(), loading.toString(), "text/plain", null), "text/html", "utf-8");
+	}
+	
+	private void show(int request, LoadedEntry entry) {
+		// a later entry has been asked for since, or this one is gone
+		if (request != requests || entry == null) {
+			return;
+		}
+		
+		entryId = entry.id;
+		entryDate = entry.date;
+		entryAuthor = entry.author;
+		
+        setTitle(entry.article.title + " - " + getText(R.string.app_shortname));
+        webView.loadData(entry.article.page, "text/html", "utf-8");
+        
+        // mark the item as read; this is batched up with the others read, rather than written right away
+        if (!entry.read && !readStateWriter.isPending(entryId)) {
+        	readStateWriter.markRead(entryId);
+        }
+        
+        prefetchNeighbours();
+	}
+	
+	/**
+	 * Loads the entries either side of this one into the cache in the background, so moving to them is instant.
+	 */
+	private void prefetchNeighbours() {
+		if (entriesUri == null) {
+			return;
+		}
+		
+		final ContentResolver resolver = getContentResolver();
+		final ContentURI uri = entriesUri;
+		final boolean byAuthor = this.byAuthor;
+		final String author = entryAuthor;
+		final long date = entryDate;
+		final long id = entryId;
+		submit(new Runnable() {
+			public void run() {
+				// the next entry first, since that's the one usually read next
+				for (boolean next : new boolean[] { true, false }) {
+					long neighbour = findNeighbour(resolver, uri, byAuthor, next, author, date, id);
+					if (neighbour != -1 && !cache.contains(neighbour)) {
+						cache.get(resolver, neighbour);
+					}
+				}
+			}
+		}, false);
+	}
+	
+	/**
+	 * @return the id of the entry after (or before) the given one in the list, or -1 if it's the last (or first)
+	 */
+	private static long findNeighbour(ContentResolver resolver, ContentURI entriesUri, boolean byAuthor, boolean next, 
+			String author, long date, long id) {
+		String selection;
+		String[] args;
+		String sortOrder;
+		if (byAuthor) {
+			selection = next ? NEXT_BY_AUTHOR : PREVIOUS_BY_AUTHOR;
+			args = new String[] { author, author, Long.toString(date), Long.toString(date), Long.toString(id) };
+			sortOrder = next ? AUTHOR_SORT_ORDER : PREVIOUS_BY_AUTHOR_ORDER;
+		} else {
+			selection = next ? EARLIER : LATER;
+			args = new String[] { Long.toString(date), Long.toString(date), Long.toString(id) };
+			sortOrder = next ? EntryPager.SORT_ORDER : PREVIOUS_BY_DATE_ORDER;
+		}
+		
+		Cursor c = resolver.query(Afr.Entries.limit(entriesUri, 1), idProjection, selection, args, sortOrder);
+		try {
+			return c.first() ? c.getLong(0) : -1;
+		} finally {
+			c.close();
+		}
+	}
+	
+	/**
+	 * Queues a task on the loader thread, dropping any still waiting if it supersedes them.
+	 */
+	private static synchronized void submit(Runnable task, boolean supersede) {
+		if (supersede) {
+			loads.clear();
+		}
+		loads.add(task);
+		
+		if (loader == null) {
+			loader = new Thread(new Runnable() {
+				public void run() {
+					while (true) {
+						try {
+							loads.take().run();
+						} catch (InterruptedException e) {
+							return;
+						} catch (RuntimeException e) {
+							Log.w("AFR", "EntryViewer.submit(): couldn't load an entry", e);
+						}
+					}
+				}
+			}, "AFR entry loader");
+			loader.setDaemon(true);
+			loader.start();
+		}
+	}
 }
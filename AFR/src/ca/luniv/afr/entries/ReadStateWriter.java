@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.entries;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+import ca.luniv.afr.provider.Afr;
+
+/**
+ * Marks entries read in batches, off the UI thread. Entries queued here are written out a few seconds
+ * later, once enough of them have built up, or when {@link #flush()} is called; each batch is a single
+ * update, so the entries list is only requeried once for it. Until then, {@link #isPending(long)} tells
+ * the list to show them as read.
+ */
+public final class ReadStateWriter {
+	// how long an entry may wait to be written, and how many may wait before they're written anyway
+	static final long FLUSH_DELAY = 5 * 1000;
+	static final int FLUSH_THRESHOLD = 25;
+
+	private static ReadStateWriter instance;
+
+	private final ContentResolver resolver;
+	// the writes all happen on the timer's thread, one batch at a time
+	private final Timer timer = new Timer();
+	private final LinkedHashSet<Long> pending = new LinkedHashSet<Long>();
+	private TimerTask scheduled;
+
+	private ReadStateWriter(ContentResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	public static synchronized ReadStateWriter getInstance(Context context) {
+		if (instance == null) {
+			instance = new ReadStateWriter(context.getContentResolver());
+		}
+		return instance;
+	}
+
+	/**
+	 * Queues an entry to be marked read.
+	 */
+	public synchronized void markRead(long entryId) {
+		pending.add(entryId);
+		if (pending.size() >= FLUSH_THRESHOLD) {
+			schedule(0);
+		} else if (scheduled == null) {
+			schedule(FLUSH_DELAY);
+		}
+	}
+
+	/**
+	 * @return if the entry has been marked read, but not written out yet
+	 */
+	public synchronized boolean isPending(long entryId) {
+		return pending.contains(entryId);
+	}
+
+	/**
+	 * Writes out the queued entries now (in the background).
+	 */
+	public synchronized void flush() {
+		if (!pending.isEmpty()) {
+			schedule(0);
+		}
+	}
+
+	private void schedule(long delay) {
+		if (scheduled != null) {
+			scheduled.cancel();
+		}
+		scheduled = new TimerTask() {
+			@Override
+			public void run() {
+				write();
+			}
+		};
+		timer.schedule(scheduled, delay);
+	}
+
+	private void write() {
+		ArrayList<Long> batch;
+		synchronized (this) {
+			scheduled = null;
+			batch = new ArrayList<Long>(pending);
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		StringBuilder ids = new StringBuilder();
+		for (Long id : batch) {
+			if (ids.length() > 0) {
+				ids.append(',');
+			}
+			ids.append(id);
+		}
+
+		ContentValues values = new ContentValues();
+		values.put(Afr.Entries.READ, Boolean.TRUE);
+		try {
+			resolver.update(Afr.Entries.CONTENT_READ_STATE_URI.addPath("ids").addPath(ids.toString()), values, null, null);
+		} catch (RuntimeException e) {
+			// they're left pending, to be tried again with the next batch
+			Log.w("AFR", "ReadStateWriter.write(): couldn't mark " + batch.size() + " entries read", e);
+			return;
+		}
+
+		// they stay pending until they're written, so the list keeps showing them as read in the meantime
+		synchronized (this) {
+			pending.removeAll(batch);
+		}
+	}
+}
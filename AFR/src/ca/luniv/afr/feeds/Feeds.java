@@ -26,7 +26,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.net.ContentURI;
 import android.os.Bundle;
 import android.os.DeadObjectException;
 import android.os.IBinder;
@@ -156,12 +155,9 @@ public class Feeds extends ListActivity {
     
 	private static final String[] listProjection = {
 		Afr.Feeds._ID,
-		Afr.Feeds.NAME
-	};
-	
-	private static final String[] itemCountProjection = {
-		Afr.Entries._ID,
-		Afr.Entries.READ
+		Afr.Feeds.NAME,
+		Afr.Feeds.UNREAD_COUNT,
+		Afr.Feeds.TOTAL_COUNT
 	};
 	
     private class FeedsListAdapter extends SectionedListAdapter {    	
@@ -176,21 +172,12 @@ public class Feeds extends ListActivity {
     		TextView name = (TextView) view.findViewById(R.id.feed_title);
     		name.setText(cursor.getString(1));
     		
-    		// query and compute the counts
-    		ContentURI queryURI = Afr.Feeds.CONTENT_URI.addId(cursor.getLong(0)).addPath("entries/filter");
-
-    		int read = 0, unread = 0;
-    		
-    		Cursor c = managedQuery(queryURI.addPath("unread"), itemCountProjection, null, null);
-    		unread = c.count();
-    		c.close();
-    		
-    		c = managedQuery(queryURI.addPath("read"), itemCountProjection, null, null);
-    		read = c.count();
-    		c.close();
+    		// the counts are kept with the feed, so there's nothing more to query
+    		int unread = cursor.getInt(2);
+    		int total = cursor.getInt(3);
     				
     		TextView counts = (TextView) view.findViewById(R.id.feed_counts);
-    		counts.setText(Integer.toString(unread) + "/" + Integer.toString(unread + read));
+    		counts.setText(Integer.toString(unread) + "/" + Integer.toString(total));
     		
     		// display the feed with bold typeface if unread items
     		if (unread == 0) {
@@ -57,6 +57,37 @@ public final class Afr {
 	     * <P>Type: TEXT</P>
 	     */
 		public static final String ETAG = "etag";
+		/**
+	     * How long, in milliseconds, to wait between checks of the feed (learned from how often the feed is updated)
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String UPDATE_INTERVAL = "update_interval";
+		/**
+	     * The date & time of when the feed is next due to be checked
+	     * <P>Type: TIMESTAMP (INTEGER)</P>
+	     */
+		public static final String NEXT_CHECK = "next_check";
+		/**
+	     * The number of unread entries in the feed (kept up to date by the database, so it is read only)
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String UNREAD_COUNT = "unread_count";
+		/**
+	     * The number of entries in the feed (kept up to date by the database, so it is read only)
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String TOTAL_COUNT = "total_count";
+		/**
+	     * The hash of the feed's URI (see {@link ca.luniv.afr.Utils#hashUri(String)}), used to look feeds up by URI
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String URI_HASH = "uri_hash";
+		/**
+	     * Whether the feed was read through to the end the last time it was checked. Until it has been, the 
+	     * entries already stored for it may be missing ones from further down the feed.
+	     * <P>Type: BOOLEAN</P>
+	     */
+		public static final String COMPLETE = "complete";
 	}
 	
 	public static final class Feeds implements FeedsColumns {
@@ -72,13 +103,19 @@ public final class Afr {
 			static final String tableName = "feeds";
 			static final String create = "CREATE TABLE feeds (" +
 				"_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-				"uri TEXT NOT NULL UNIQUE, " +
+				"uri TEXT NOT NULL, " +
 				"name TEXT NOT NULL, " +
 				"link TEXT NOT NULL, " +
 				"expire_after INTEGER, " +
 				"last_checked TIMESTAMP, " +
 				"last_modified TEXT, " +
-				"etag TEXT " +
+				"etag TEXT, " +
+				"update_interval INTEGER, " +
+				"next_check TIMESTAMP, " +
+				"unread_count INTEGER NOT NULL DEFAULT 0, " +
+				"total_count INTEGER NOT NULL DEFAULT 0, " +
+				"uri_hash INTEGER NOT NULL, " +
+				"complete BOOLEAN NOT NULL DEFAULT 0 " +
 				");";
 			static final String create_item_trigger = "CREATE TRIGGER fkd_feeds_items BEFORE DELETE ON feeds " +
 				"FOR EACH ROW BEGIN " +
@@ -88,7 +125,29 @@ public final class Afr {
 				"FOR EACH ROW BEGIN " +
 				"   DELETE FROM category_links WHERE feed = OLD._id; " +
 				"END;";
+			static final String create_tombstone_trigger = "CREATE TRIGGER fkd_feeds_tombstones BEFORE DELETE ON feeds " +
+				"FOR EACH ROW BEGIN " +
+				"   DELETE FROM tombstones WHERE feed = OLD._id; " +
+				"END;";
+			// recounts every feed's entries, for when the counts can't be trusted
+			static final String recount = "UPDATE feeds SET " +
+				"total_count = (SELECT count(*) FROM entries WHERE feed = feeds._id), " +
+				"unread_count = (SELECT count(*) FROM entries WHERE feed = feeds._id AND NOT read);";
+			// feeds are looked up by the hash of their URI rather than the URI itself, which keeps the index small
+			static final String create_uri_hash_index = "CREATE INDEX IF NOT EXISTS feeds_uri_hash ON feeds (uri_hash);";
 			static final String delete = "DROP TABLE IF EXISTS feeds;";
+			
+			// upgrades from older schema versions
+			static final String[] upgrade_to_4 = {
+				"ALTER TABLE feeds ADD COLUMN update_interval INTEGER;",
+				"ALTER TABLE feeds ADD COLUMN next_check TIMESTAMP;"
+			};
+			static final String[] upgrade_to_5 = {
+				"ALTER TABLE feeds ADD COLUMN unread_count INTEGER NOT NULL DEFAULT 0;",
+				"ALTER TABLE feeds ADD COLUMN total_count INTEGER NOT NULL DEFAULT 0;"
+			};
+			static final String upgrade_to_8 = "ALTER TABLE feeds ADD COLUMN uri_hash INTEGER NOT NULL DEFAULT 0;";
+			static final String upgrade_to_13 = "ALTER TABLE feeds ADD COLUMN complete BOOLEAN NOT NULL DEFAULT 0;";
 		}
 	}
 	
@@ -124,7 +183,8 @@ public final class Afr {
 	     */
 		public static final String LINK = "link";
 		/**
-	     * The contents of the item
+	     * The contents of the item (kept apart from the rest of the item, so it is only returned for a 
+	     * single item or when asked for)
 	     * <P>Type: TEXT</P>
 	     */
 		public static final String CONTENT = "content";
@@ -138,6 +198,29 @@ public final class Afr {
 	     * <P>Type: BOOLEAN (INTEGER)</P>
 	     */
 		public static final String READ = "read";
+		/**
+	     * The hash of the item's URI (see {@link ca.luniv.afr.Utils#hashUri(String)}), used to look items up by URI
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String URI_HASH = "uri_hash";
+		/**
+	     * How the item's contents are stored: 0 if as is, otherwise compressed (the contents are always 
+	     * read back uncompressed, and are compressed whenever they are written, so this is read only)
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String COMPRESSION = "compression";
+		/**
+	     * The item as it is shown: a complete HTML document, with the contents cleaned up and their links 
+	     * resolved (kept apart from the rest of the item like the contents; null for items stored before 
+	     * they were rendered as they were retrieved)
+	     * <P>Type: TEXT</P>
+	     */
+		public static final String RENDERED = "rendered";
+		/**
+	     * How well the item matches the search; the higher the better (only in search results)
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String SCORE = "score";
 	}
 	
 	public static final class Entries implements EntriesColumns {
@@ -146,31 +229,199 @@ public final class Afr {
 		
 		public static final ContentURI CONTENT_URI = ContentURI.create("content://ca.luniv.afr.provider.Afr/entries");
 		public static final ContentURI CONTENT_FILTER_URI_URI = ContentURI.create("content://ca.luniv.afr.provider.Afr/entries/uri");
+		/**
+		 * Only ever notified, never queried: observers of it hear when what an entry shows changes (its title 
+		 * or content) or when entries are deleted. It's outside the entries' URIs so that marking entries 
+		 * read, which happens all the time, doesn't notify its observers.
+		 */
+		public static final ContentURI CONTENTS_CHANGED_URI = ContentURI.create("content://ca.luniv.afr.provider.Afr/entry_contents");
+		/**
+		 * Searches the title, author and content of all the entries; add the URL encoded query as the last 
+		 * segment. To search a single feed's entries, use <code>feeds/#/entries/search/</code> instead. Entries 
+		 * only match if they have every word in the query. Results are paged like any list of entries, 
+		 * with {@link #limit(ContentURI, int, int)}.
+		 */
+		public static final ContentURI CONTENT_SEARCH_URI = ContentURI.create("content://ca.luniv.afr.provider.Afr/entries/search");
+		/**
+		 * Marks a whole set of entries read or unread at once: update it with only {@link #READ} in the values. 
+		 * On its own it covers the entries picked out by the selection (or all of them). Add 
+		 * <code>before/&lt;date&gt;</code> for the entries older than a date (in milliseconds), or 
+		 * <code>ids/&lt;id&gt;,&lt;id&gt;,...</code> for a list of entries. There are also 
+		 * <code>feeds/#/entries/read_state</code> (with or without <code>before/&lt;date&gt;</code>) for a 
+		 * feed's entries and <code>categories/#/entries/read_state</code> for a category's.
+		 */
+		public static final ContentURI CONTENT_READ_STATE_URI = ContentURI.create("content://ca.luniv.afr.provider.Afr/entries/read_state");
+		/**
+		 * Compresses the content of entries stored before content was compressed: update it with the most 
+		 * entries to compress at once added as the last segment. The update returns how many were compressed.
+		 */
+		public static final ContentURI CONTENT_COMPRESS_URI = ContentURI.create("content://ca.luniv.afr.provider.Afr/entries/compress");
 		
 		public static final String DEFAULT_SORT_ORDER = "date DESC";
+		public static final String SEARCH_SORT_ORDER = "score DESC, date DESC";
+		
+		/**
+		 * Limits a list of entries (all entries, a feed's or a category's, filtered or searched) to its first 
+		 * <code>limit</code> rows, in the query's sort order. Querying any other URI with a limit throws an 
+		 * IllegalArgumentException.
+		 */
+		public static ContentURI limit(ContentURI uri, int limit) {
+			return uri.addPath("limit").addId(limit);
+		}
+		
+		/**
+		 * Limits a list of entries to <code>limit</code> rows, skipping the first <code>offset</code>.
+		 */
+		public static ContentURI limit(ContentURI uri, int limit, int offset) {
+			return limit(uri, limit).addPath("offset").addId(offset);
+		}
 	
 		static final class SQL {
 			static final String tableName = "entries";
 			static final String create = "CREATE TABLE entries (" +
 				"_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
 				"feed INTEGER NOT NULL, " +
-				"uri TEXT NOT NULL UNIQUE, " +
+				"uri TEXT NOT NULL, " +
 				"title TEXT, " +
 				"author TEXT, " +
 				"date TIMESTAMP NOT NULL, " + 
 				"link TEXT, " +
-				"content TEXT NOT NULL, " +
 				"type TEXT NOT NULL, " +
-				"read BOOLEAN DEFAULT 0 " +
+				"read BOOLEAN DEFAULT 0, " +
+				"uri_hash INTEGER NOT NULL " +
+				"); ";
+			// the contents are kept in a table of their own, so lists of entries don't have to page through them
+			static final String contentsTableName = "entry_contents";
+			// the rendered item is always deflated, whatever the contents' compression
+			static final String create_contents = "CREATE TABLE entry_contents (" +
+				"entry INTEGER PRIMARY KEY, " +
+				"content BLOB NOT NULL, " +
+				"compression INTEGER NOT NULL DEFAULT 0, " +
+				"rendered BLOB " +
 				"); ";
+			static final String create_contents_trigger = "CREATE TRIGGER fkd_entries_contents BEFORE DELETE ON entries " +
+				"FOR EACH ROW BEGIN " +
+				"   DELETE FROM entry_contents WHERE entry = OLD._id; " +
+				"END;";
+			// the search index: one row for each word in each entry (see SearchIndex)
+			static final String termsTableName = "entry_terms";
+			static final String create_terms = "CREATE TABLE entry_terms (" +
+				"term TEXT NOT NULL, " +
+				"entry INTEGER NOT NULL, " +
+				"feed INTEGER NOT NULL, " +
+				"weight INTEGER NOT NULL " +
+				"); ";
+			static final String create_terms_trigger = "CREATE TRIGGER fkd_entries_terms BEFORE DELETE ON entries " +
+				"FOR EACH ROW BEGIN " +
+				"   DELETE FROM entry_terms WHERE entry = OLD._id; " +
+				"END;";
 			static final String create_category_trigger = "CREATE TRIGGER fkd_entries_category_links BEFORE DELETE ON entries " +
 				"FOR EACH ROW BEGIN " +
 				"   DELETE FROM category_links WHERE entry = OLD._id; " +
 				"END;";
+			// these keep the feeds' entry counts up to date
+			static final String create_insert_count_trigger = "CREATE TRIGGER cnt_entries_insert AFTER INSERT ON entries " +
+				"FOR EACH ROW BEGIN " +
+				"   UPDATE feeds SET total_count = total_count + 1, " +
+				"      unread_count = unread_count + CASE WHEN NEW.read THEN 0 ELSE 1 END " +
+				"   WHERE _id = NEW.feed; " +
+				"END;";
+			static final String create_delete_count_trigger = "CREATE TRIGGER cnt_entries_delete AFTER DELETE ON entries " +
+				"FOR EACH ROW BEGIN " +
+				"   UPDATE feeds SET total_count = total_count - 1, " +
+				"      unread_count = unread_count - CASE WHEN OLD.read THEN 0 ELSE 1 END " +
+				"   WHERE _id = OLD.feed; " +
+				"END;";
+			static final String create_update_count_trigger = "CREATE TRIGGER cnt_entries_update AFTER UPDATE OF feed, read ON entries " +
+				"FOR EACH ROW WHEN OLD.feed != NEW.feed OR " +
+				"   (CASE WHEN OLD.read THEN 1 ELSE 0 END) != (CASE WHEN NEW.read THEN 1 ELSE 0 END) BEGIN " +
+				"   UPDATE feeds SET total_count = total_count - 1, " +
+				"      unread_count = unread_count - CASE WHEN OLD.read THEN 0 ELSE 1 END " +
+				"   WHERE _id = OLD.feed; " +
+				"   UPDATE feeds SET total_count = total_count + 1, " +
+				"      unread_count = unread_count + CASE WHEN NEW.read THEN 0 ELSE 1 END " +
+				"   WHERE _id = NEW.feed; " +
+				"END;";
+			// entries are nearly always looked up by feed, in date order or by read state
+			static final String create_feed_date_index = "CREATE INDEX IF NOT EXISTS entries_feed_date ON entries (feed, date);";
+			static final String create_feed_read_index = "CREATE INDEX IF NOT EXISTS entries_feed_read ON entries (feed, read);";
+			static final String create_uri_hash_index = "CREATE INDEX IF NOT EXISTS entries_uri_hash ON entries (uri_hash);";
+			// searches look terms up, optionally within a feed; the delete trigger goes by entry
+			static final String create_terms_index = "CREATE INDEX IF NOT EXISTS entry_terms_term ON entry_terms (term, feed);";
+			static final String create_terms_entry_index = "CREATE INDEX IF NOT EXISTS entry_terms_entry ON entry_terms (entry);";
 			static final String delete = "DROP TABLE IF EXISTS entries";
+			static final String delete_contents = "DROP TABLE IF EXISTS entry_contents";
+			static final String delete_terms = "DROP TABLE IF EXISTS entry_terms";
+			
+			// upgrades from older schema versions
+			static final String upgrade_to_8 = "ALTER TABLE entries ADD COLUMN uri_hash INTEGER NOT NULL DEFAULT 0;";
+			static final String upgrade_to_9 = "ALTER TABLE entries ADD COLUMN compression INTEGER NOT NULL DEFAULT 0;";
+			// SQLite can't drop columns, so the entries table is rebuilt without its contents (which also 
+			// gets rid of the old UNIQUE constraint on the URI); the triggers and indexes go with the old table
+			static final String[] upgrade_to_10 = {
+				"CREATE TABLE entry_contents (entry INTEGER PRIMARY KEY, content BLOB NOT NULL, compression INTEGER NOT NULL DEFAULT 0);",
+				"INSERT INTO entry_contents (entry, content, compression) SELECT _id, content, compression FROM entries;",
+				// the version 10 table as it was, not as it is now, so later changes don't change this upgrade
+				"CREATE TABLE entries_new (" +
+					"_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+					"feed INTEGER NOT NULL, " +
+					"uri TEXT NOT NULL, " +
+					"title TEXT, " +
+					"author TEXT, " +
+					"date TIMESTAMP NOT NULL, " + 
+					"link TEXT, " +
+					"type TEXT NOT NULL, " +
+					"read BOOLEAN DEFAULT 0, " +
+					"uri_hash INTEGER NOT NULL " +
+					");",
+				"INSERT INTO entries_new (_id, feed, uri, title, author, date, link, type, read, uri_hash) " +
+					"SELECT _id, feed, uri, title, author, date, link, type, read, uri_hash FROM entries;",
+				"DROP TABLE entries;",
+				"ALTER TABLE entries_new RENAME TO entries;"
+			};
+			static final String upgrade_to_12 = "ALTER TABLE entry_contents ADD COLUMN rendered BLOB;";
 		}
 	}
 
+	public interface TombstonesColumns {
+		/**
+	     * The hash of the deleted entry's URI (see {@link ca.luniv.afr.Utils#hashUri(String)})
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String URI_HASH = "uri_hash";
+		/**
+	     * The id of the feed the deleted entry belonged to
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String FEED = "feed";
+		/**
+	     * The date & time of when the entry was deleted
+	     * <P>Type: TIMESTAMP (INTEGER)</P>
+	     */
+		public static final String DELETED = "deleted";
+	}
+	
+	/**
+	 * Deleted entries are remembered here (by URI hash only) so they aren't retrieved all over again. 
+	 * Tombstones are left by the provider whenever entries are deleted, except when their feed is.
+	 */
+	public static final class Tombstones implements TombstonesColumns {
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.afr.tombstone";
+		
+		public static final ContentURI CONTENT_URI = ContentURI.create("content://ca.luniv.afr.provider.Afr/tombstones");
+		
+		static final class SQL {
+			static final String tableName = "tombstones";
+			static final String create = "CREATE TABLE tombstones (" +
+				"uri_hash INTEGER NOT NULL, " +
+				"feed INTEGER NOT NULL, " +
+				"deleted TIMESTAMP NOT NULL " +
+				");";
+			static final String create_uri_hash_index = "CREATE INDEX IF NOT EXISTS tombstones_uri_hash ON tombstones (uri_hash);";
+			static final String delete = "DROP TABLE IF EXISTS tombstones";
+		}
+	}
+	
 	public interface AuthorsColumns {
 		/**
 	     * The author's name
@@ -193,6 +444,57 @@ public final class Afr {
 		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.afr.author";
 		
 	}
+	
+	public interface SectionsColumns {
+		/**
+	     * The section's key: the value of the column the entries were sectioned by, or for ranges, the 
+	     * number of the first range the entries fall in (-1 if none)
+	     * <P>Type: varies</P>
+	     */
+		public static final String SECTION = "section";
+		/**
+	     * The number of entries in the section
+	     * <P>Type: INTEGER</P>
+	     */
+		public static final String COUNT = "count";
+	}
+	
+	/**
+	 * The number of a feed's entries in each section of its entry list. The entries are sectioned by one 
+	 * of their columns, either by its value ({@link #groups}) or by the range the value falls in 
+	 * ({@link #ranges}); the results have the section's key and how many entries are in it.
+	 */
+	public static final class Sections implements SectionsColumns {
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.afr.section";
+		
+		/**
+		 * The columns entries can be sectioned by
+		 */
+		public static final String[] COLUMNS = { Entries.DATE, Entries.AUTHOR };
+		
+		// the endpoint types of ranges
+		public static final char INCLUDED = 'i';
+		public static final char EXCLUDED = 'x';
+		public static final char UNBOUNDED = 'n';
+		
+		/**
+		 * Sections the feed's entries by the value of <code>column</code> (one of {@link #COLUMNS}).
+		 */
+		public static ContentURI groups(long feedId, String column) {
+			return Feeds.CONTENT_URI.addId(feedId).addPath("entries/sections").addPath(column);
+		}
+		
+		/**
+		 * Sections the feed's entries by the range <code>column</code> (one of {@link #COLUMNS}) falls in. 
+		 * <code>endpoints</code> has the start and end type of each range in turn ({@link #INCLUDED}, 
+		 * {@link #EXCLUDED} or {@link #UNBOUNDED}); the bounds themselves are the first of the query's 
+		 * selection arguments, one for each endpoint that isn't unbounded, in the same order. Each entry 
+		 * is counted in the first range it falls in.
+		 */
+		public static ContentURI ranges(long feedId, String column, String endpoints) {
+			return groups(feedId, column).addPath("ranges").addPath(endpoints);
+		}
+	}
 
 	public interface CategoriesColumns extends BaseColumns {
 		/**
@@ -254,6 +556,10 @@ public final class Afr {
 				"feed INTEGER, " +
 				"entry INTEGER " +
 				");";
+			// the links are looked up from every side, including by the delete triggers
+			static final String create_entry_index = "CREATE INDEX IF NOT EXISTS category_links_entry ON category_links (entry);";
+			static final String create_feed_index = "CREATE INDEX IF NOT EXISTS category_links_feed ON category_links (feed);";
+			static final String create_category_index = "CREATE INDEX IF NOT EXISTS category_links_category ON category_links (category);";
 			static final String delete = "DROP TABLE IF EXISTS category_links";
 		}
 	}
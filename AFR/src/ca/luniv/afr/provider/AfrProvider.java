@@ -17,7 +17,14 @@ package ca.luniv.afr.provider;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import android.content.ContentURIParser;
 import android.content.ContentValues;
@@ -25,14 +32,18 @@ import android.content.DatabaseContentProvider;
 import android.content.QueryBuilder;
 import android.database.Cursor;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.ContentURI;
 import android.text.TextUtils;
 import android.util.Log;
+import ca.luniv.afr.Utils;
 
 public class AfrProvider extends DatabaseContentProvider {	
 	private static final String TAG = "AfrProvider";
 	private static final String DATABASE_NAME = "afr.db";
-	private static final int DATABASE_VERSION = 3;
+	private static final int DATABASE_VERSION = 13;
+	// databases older than this are thrown away rather than upgraded
+	private static final int OLDEST_UPGRADABLE_VERSION = 3;
 
 	private static enum URIPatternIds {
 		FEEDS,
@@ -40,25 +51,38 @@ public class AfrProvider extends DatabaseContentProvider {
 		FEED_CATEGORIES,
 		FEED_ENTRIES,
 		FEED_ENTRIES_AUTHORS,
+		FEED_ENTRIES_SECTIONS,
+		FEED_ENTRIES_SECTION_RANGES,
 		FEED_ENTRIES_CATEGORIES,
 		FEED_ENTRIES_FILTER_AUTHOR,
 		FEED_ENTRIES_FILTER_CATEGORY,
 		FEED_ENTRIES_FILTER_READ,
 		FEED_ENTRIES_FILTER_UNREAD,
+		FEED_ENTRIES_SEARCH,
+		FEED_ENTRIES_READ_STATE,
+		FEED_ENTRIES_READ_STATE_BEFORE,
 		FEED_ENTRY_ID,
 		FEED_ENTRY_CATEGORIES,
 		
 		ENTRIES,
 		ENTRY_ID,
 		ENTRY_CATEGORIES,
+		ENTRIES_SEARCH,
+		ENTRIES_READ_STATE,
+		ENTRIES_READ_STATE_BEFORE,
+		ENTRIES_READ_STATE_IDS,
+		ENTRIES_COMPRESS,
 		
 		CATEGORIES,
 		CATEGORY_ID,
 		CATEGORY_FEEDS,
 		CATEGORY_ENTRIES,
+		CATEGORY_ENTRIES_READ_STATE,
 		
 		FEED_URI,
-		ENTRY_URI;
+		ENTRY_URI,
+		
+		TOMBSTONES;
 		
 		public static URIPatternIds get(int ordinal) {
 			return values()[ordinal];
@@ -66,10 +90,45 @@ public class AfrProvider extends DatabaseContentProvider {
 	};
 	
     private static final ContentURIParser URI_MATCHER;
-
-    private static final HashMap<String, String> feedsColumnMap;
-    private static final HashMap<String, String> entriesColumnMap;
-    private static final HashMap<String, String> categoriesColumnMap;
+    
+    // the statements for the busiest paths, which are compiled once and kept (see getStatement())
+    private static final String FIND_FEED_BY_URI = "SELECT ifnull(max(_id), -1) FROM feeds WHERE uri_hash = ? AND uri = ?";
+    private static final String FIND_ENTRY_BY_URI = "SELECT ifnull(max(_id), -1) FROM entries WHERE uri_hash = ? AND uri = ?";
+    private static final String INSERT_ENTRY = "INSERT INTO entries (feed, uri, title, author, date, link, type, read, uri_hash) " +
+    	"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ENTRY_CONTENTS = "INSERT INTO entry_contents (entry, content, compression, rendered) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_TOMBSTONE = "INSERT INTO tombstones (uri_hash, feed, deleted) VALUES (?, ?, ?)";
+    private static final String INSERT_TERM = "INSERT INTO entry_terms (term, entry, feed, weight) VALUES (?, ?, ?, ?)";
+    private static final String COMPRESS_CONTENTS = "UPDATE entry_contents SET content = ?, compression = ? WHERE entry = ? AND compression = ?";
+    
+    // the columns bound by INSERT_ENTRY, in order
+    private static final String[] insertEntryColumns = {
+    	Afr.EntriesColumns.FEED,
+    	Afr.EntriesColumns.URI,
+    	Afr.EntriesColumns.TITLE,
+    	Afr.EntriesColumns.AUTHOR,
+    	Afr.EntriesColumns.DATE,
+    	Afr.EntriesColumns.LINK,
+    	Afr.EntriesColumns.TYPE,
+    	Afr.EntriesColumns.READ,
+    	Afr.EntriesColumns.URI_HASH
+    };
+    
+    // all of an entry's columns, in the order the entries table used to have them (the DAO loads entries by position)
+    private static final String[] entryProjection = {
+    	Afr.EntriesColumns._ID,
+    	Afr.EntriesColumns.FEED,
+    	Afr.EntriesColumns.URI,
+    	Afr.EntriesColumns.TITLE,
+    	Afr.EntriesColumns.AUTHOR,
+    	Afr.EntriesColumns.DATE,
+    	Afr.EntriesColumns.LINK,
+    	Afr.EntriesColumns.CONTENT,
+    	Afr.EntriesColumns.TYPE,
+    	Afr.EntriesColumns.READ,
+    	Afr.EntriesColumns.URI_HASH,
+    	Afr.EntriesColumns.COMPRESSION
+    };
     
     static {
         URI_MATCHER = new ContentURIParser(ContentURIParser.NO_MATCH);
@@ -80,6 +139,8 @@ public class AfrProvider extends DatabaseContentProvider {
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/categories", URIPatternIds.FEED_CATEGORIES.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries", URIPatternIds.FEED_ENTRIES.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/authors", URIPatternIds.FEED_ENTRIES_AUTHORS.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/sections/*", URIPatternIds.FEED_ENTRIES_SECTIONS.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/sections/*/ranges/*", URIPatternIds.FEED_ENTRIES_SECTION_RANGES.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/categories", URIPatternIds.FEED_ENTRIES_CATEGORIES.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/#", URIPatternIds.FEED_ENTRY_ID.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/#/categories", URIPatternIds.FEED_ENTRY_CATEGORIES.ordinal());
@@ -88,47 +149,41 @@ public class AfrProvider extends DatabaseContentProvider {
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/filter/category/*", URIPatternIds.FEED_ENTRIES_FILTER_CATEGORY.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/filter/read", URIPatternIds.FEED_ENTRIES_FILTER_READ.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/filter/unread", URIPatternIds.FEED_ENTRIES_FILTER_UNREAD.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/search/*", URIPatternIds.FEED_ENTRIES_SEARCH.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/read_state", URIPatternIds.FEED_ENTRIES_READ_STATE.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/#/entries/read_state/before/#", URIPatternIds.FEED_ENTRIES_READ_STATE_BEFORE.ordinal());
         
         URI_MATCHER.addURI(Afr.AUTHORITY, "entries", URIPatternIds.ENTRIES.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "entries/#", URIPatternIds.ENTRY_ID.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "entries/#/categories", URIPatternIds.ENTRY_CATEGORIES.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "entries/search/*", URIPatternIds.ENTRIES_SEARCH.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "entries/read_state", URIPatternIds.ENTRIES_READ_STATE.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "entries/read_state/before/#", URIPatternIds.ENTRIES_READ_STATE_BEFORE.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "entries/read_state/ids/*", URIPatternIds.ENTRIES_READ_STATE_IDS.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "entries/compress/#", URIPatternIds.ENTRIES_COMPRESS.ordinal());
         
         URI_MATCHER.addURI(Afr.AUTHORITY, "categories", URIPatternIds.CATEGORIES.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "categories/#", URIPatternIds.CATEGORY_ID.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "categories/#/feeds", URIPatternIds.CATEGORY_FEEDS.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "categories/#/entries", URIPatternIds.CATEGORY_ENTRIES.ordinal());
+        URI_MATCHER.addURI(Afr.AUTHORITY, "categories/#/entries/read_state", URIPatternIds.CATEGORY_ENTRIES_READ_STATE.ordinal());
         
         // used by the feed retriever service when updating feeds
         URI_MATCHER.addURI(Afr.AUTHORITY, "feeds/uri/*", URIPatternIds.FEED_URI.ordinal());
         URI_MATCHER.addURI(Afr.AUTHORITY, "entries/uri/*", URIPatternIds.ENTRY_URI.ordinal());
-
-		feedsColumnMap = new HashMap<String, String>();
-		feedsColumnMap.put(Afr.FeedsColumns._ID, "f." + Afr.FeedsColumns._ID);
-		feedsColumnMap.put(Afr.FeedsColumns.URI, "f." + Afr.FeedsColumns.URI);
-		feedsColumnMap.put(Afr.FeedsColumns.NAME, "f." + Afr.FeedsColumns.NAME);
-		feedsColumnMap.put(Afr.FeedsColumns.LINK, "f." + Afr.FeedsColumns.LINK);
-		feedsColumnMap.put(Afr.FeedsColumns.EXPIRE_AFTER, "f." + Afr.FeedsColumns.EXPIRE_AFTER);
-		feedsColumnMap.put(Afr.FeedsColumns.LAST_CHECKED, "f." + Afr.FeedsColumns.LAST_CHECKED);
-		feedsColumnMap.put(Afr.FeedsColumns.LAST_MODIFIED, "f." + Afr.FeedsColumns.LAST_MODIFIED);
-		feedsColumnMap.put(Afr.FeedsColumns.ETAG, "f." + Afr.FeedsColumns.ETAG);
-		
-		entriesColumnMap = new HashMap<String, String>();
-		entriesColumnMap.put(Afr.EntriesColumns._ID, "e." + Afr.EntriesColumns._ID);
-		entriesColumnMap.put(Afr.EntriesColumns.FEED, "e." + Afr.EntriesColumns.FEED);
-		entriesColumnMap.put(Afr.EntriesColumns.URI, "e." + Afr.EntriesColumns.URI);
-		entriesColumnMap.put(Afr.EntriesColumns.TITLE, "e." + Afr.EntriesColumns.TITLE);
-		entriesColumnMap.put(Afr.EntriesColumns.AUTHOR, "e." + Afr.EntriesColumns.AUTHOR);
-		entriesColumnMap.put(Afr.EntriesColumns.DATE, "e." + Afr.EntriesColumns.DATE);
-		entriesColumnMap.put(Afr.EntriesColumns.LINK, "e." + Afr.EntriesColumns.LINK);
-		entriesColumnMap.put(Afr.EntriesColumns.CONTENT, "e." + Afr.EntriesColumns.CONTENT);
-		entriesColumnMap.put(Afr.EntriesColumns.TYPE, "e." + Afr.EntriesColumns.TYPE);
-		entriesColumnMap.put(Afr.EntriesColumns.READ, "e." + Afr.EntriesColumns.READ);
-		
-		categoriesColumnMap = new HashMap<String, String>();
-		categoriesColumnMap.put(Afr.CategoriesColumns._ID, "c." + Afr.CategoriesColumns._ID);
-		categoriesColumnMap.put(Afr.CategoriesColumns.NAME, "c." + Afr.CategoriesColumns.NAME);
+        URI_MATCHER.addURI(Afr.AUTHORITY, "tombstones", URIPatternIds.TOMBSTONES.ordinal());
     }
     
+    // a limit (and offset) on the rows of a list of entries, added to the end of its URI
+    private static final Pattern LIMIT_SUFFIX = Pattern.compile("^(.*)/limit/(\\d+)(?:/offset/(\\d+))?$");
+    // the lists of entries; any other URI with a limit is refused, rather than the limit being ignored
+    private static final EnumSet<URIPatternIds> LIMITED_TYPES = EnumSet.of(URIPatternIds.ENTRIES, 
+    		URIPatternIds.CATEGORY_ENTRIES, URIPatternIds.FEED_ENTRIES, URIPatternIds.FEED_ENTRIES_FILTER_AUTHOR, 
+    		URIPatternIds.FEED_ENTRIES_FILTER_CATEGORY, URIPatternIds.FEED_ENTRIES_FILTER_READ, 
+    		URIPatternIds.FEED_ENTRIES_FILTER_UNREAD, URIPatternIds.FEED_ENTRIES_SEARCH, URIPatternIds.ENTRIES_SEARCH);
+    
+    private final HashMap<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+    
     public AfrProvider() {
     	super(DATABASE_NAME, DATABASE_VERSION);
     }
@@ -138,26 +193,496 @@ public class AfrProvider extends DatabaseContentProvider {
 		mDb.execSQL(Afr.Feeds.SQL.create);
 		mDb.execSQL(Afr.Feeds.SQL.create_item_trigger);
 		mDb.execSQL(Afr.Feeds.SQL.create_category_trigger);
+		mDb.execSQL(Afr.Feeds.SQL.create_tombstone_trigger);
 		mDb.execSQL(Afr.Entries.SQL.create);
 		mDb.execSQL(Afr.Entries.SQL.create_category_trigger);
+		mDb.execSQL(Afr.Entries.SQL.create_contents);
+		mDb.execSQL(Afr.Entries.SQL.create_contents_trigger);
+		mDb.execSQL(Afr.Entries.SQL.create_terms);
+		mDb.execSQL(Afr.Entries.SQL.create_terms_trigger);
+		mDb.execSQL(Afr.Entries.SQL.create_insert_count_trigger);
+		mDb.execSQL(Afr.Entries.SQL.create_delete_count_trigger);
+		mDb.execSQL(Afr.Entries.SQL.create_update_count_trigger);
 		mDb.execSQL(Afr.Categories.SQL.create);
 		mDb.execSQL(Afr.Categories.SQL.create_category_trigger);
 		mDb.execSQL(Afr.CategoryLinks.SQL.create);
+		mDb.execSQL(Afr.Tombstones.SQL.create);
+		createIndexes();
 
         Log.i(TAG, "Database created, schema version " + DATABASE_VERSION);
 		mDb.setVersion(DATABASE_VERSION);
 	}
 	
+	private void createIndexes() {
+		mDb.execSQL(Afr.Feeds.SQL.create_uri_hash_index);
+		mDb.execSQL(Afr.Entries.SQL.create_feed_date_index);
+		mDb.execSQL(Afr.Entries.SQL.create_feed_read_index);
+		mDb.execSQL(Afr.Entries.SQL.create_uri_hash_index);
+		mDb.execSQL(Afr.Entries.SQL.create_terms_index);
+		mDb.execSQL(Afr.Entries.SQL.create_terms_entry_index);
+		mDb.execSQL(Afr.CategoryLinks.SQL.create_entry_index);
+		mDb.execSQL(Afr.CategoryLinks.SQL.create_feed_index);
+		mDb.execSQL(Afr.CategoryLinks.SQL.create_category_index);
+		mDb.execSQL(Afr.Tombstones.SQL.create_uri_hash_index);
+	}
+	
 	@Override
 	protected void upgradeDatabase(int oldVersion, int newVersion) {
-        Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
-        
-        mDb.execSQL(Afr.Feeds.SQL.delete);
-        mDb.execSQL(Afr.Entries.SQL.delete);
-		mDb.execSQL(Afr.Categories.SQL.delete);
-		mDb.execSQL(Afr.CategoryLinks.SQL.delete);
+		if (oldVersion < OLDEST_UPGRADABLE_VERSION) {
+	        Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+	        
+	        mDb.execSQL(Afr.Feeds.SQL.delete);
+	        mDb.execSQL(Afr.Entries.SQL.delete);
+	        mDb.execSQL(Afr.Entries.SQL.delete_contents);
+	        mDb.execSQL(Afr.Entries.SQL.delete_terms);
+			mDb.execSQL(Afr.Categories.SQL.delete);
+			mDb.execSQL(Afr.CategoryLinks.SQL.delete);
+			mDb.execSQL(Afr.Tombstones.SQL.delete);
+			
+			bootstrapDatabase();
+			return;
+		}
+		
+        Log.i(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+		
+        // step through each version in turn, all or nothing
+		mDb.beginTransaction();
+		try {
+			for (int version = oldVersion; version < newVersion; version++) {
+				upgradeFrom(version);
+			}
+			
+			mDb.setVersion(newVersion);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+	}
+	
+	/**
+	 * Upgrades the schema from <code>version</code> to the one after it.
+	 */
+	private void upgradeFrom(int version) {
+		switch (version) {
+		case 3:
+			// feeds are scheduled by how often they update
+			execSQL(Afr.Feeds.SQL.upgrade_to_4);
+			break;
+		case 4:
+			// feeds keep count of their entries
+			execSQL(Afr.Feeds.SQL.upgrade_to_5);
+			mDb.execSQL(Afr.Entries.SQL.create_insert_count_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_delete_count_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_update_count_trigger);
+			mDb.execSQL(Afr.Feeds.SQL.recount);
+			break;
+		case 5:
+			mDb.execSQL(Afr.Entries.SQL.create_feed_date_index);
+			mDb.execSQL(Afr.Entries.SQL.create_feed_read_index);
+			mDb.execSQL(Afr.CategoryLinks.SQL.create_entry_index);
+			mDb.execSQL(Afr.CategoryLinks.SQL.create_feed_index);
+			mDb.execSQL(Afr.CategoryLinks.SQL.create_category_index);
+			break;
+		case 6:
+			// deleted entries leave tombstones
+			mDb.execSQL(Afr.Tombstones.SQL.create);
+			mDb.execSQL(Afr.Tombstones.SQL.create_uri_hash_index);
+			mDb.execSQL(Afr.Feeds.SQL.create_tombstone_trigger);
+			break;
+		case 7:
+			// feeds and entries are looked up by the hash of their URI (the old UNIQUE constraint on the 
+			// URI stays, since SQLite can't drop it without rebuilding the table)
+			mDb.execSQL(Afr.Feeds.SQL.upgrade_to_8);
+			mDb.execSQL(Afr.Entries.SQL.upgrade_to_8);
+			hashUris(Afr.Feeds.SQL.tableName);
+			hashUris(Afr.Entries.SQL.tableName);
+			mDb.execSQL(Afr.Feeds.SQL.create_uri_hash_index);
+			mDb.execSQL(Afr.Entries.SQL.create_uri_hash_index);
+			break;
+		case 8:
+			// entry content is compressed; what's already stored is left as is, and the feed retriever 
+			// service compresses it in the background
+			mDb.execSQL(Afr.Entries.SQL.upgrade_to_9);
+			break;
+		case 9:
+			// entry contents move to a table of their own
+			execSQL(Afr.Entries.SQL.upgrade_to_10);
+			mDb.execSQL(Afr.Entries.SQL.create_category_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_contents_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_insert_count_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_delete_count_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_update_count_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_feed_date_index);
+			mDb.execSQL(Afr.Entries.SQL.create_feed_read_index);
+			mDb.execSQL(Afr.Entries.SQL.create_uri_hash_index);
+			break;
+		case 10:
+			// entries are indexed for searching; the entries already stored are indexed here and now, 
+			// since the terms are worked out in Java
+			mDb.execSQL(Afr.Entries.SQL.create_terms);
+			mDb.execSQL(Afr.Entries.SQL.create_terms_trigger);
+			mDb.execSQL(Afr.Entries.SQL.create_terms_index);
+			mDb.execSQL(Afr.Entries.SQL.create_terms_entry_index);
+			indexEntries(null, null);
+			break;
+		case 11:
+			// entries are rendered as they're retrieved; the ones already stored are rendered as they're shown
+			mDb.execSQL(Afr.Entries.SQL.upgrade_to_12);
+			break;
+		case 12:
+			// feeds remember whether they were read in full; none of them are known to have been yet
+			mDb.execSQL(Afr.Feeds.SQL.upgrade_to_13);
+			break;
+		default:
+			throw new IllegalStateException("No upgrade from database version " + version);
+		}
+	}
+	
+	private void execSQL(String[] statements) {
+		for (String sql : statements) {
+			mDb.execSQL(sql);
+		}
+	}
+	
+	/**
+	 * Fills in the uri_hash column of every row in <code>table</code>. The hash is computed in Java, 
+	 * so this can't be done with a single UPDATE.
+	 */
+	private void hashUris(String table) {
+		ContentValues values = new ContentValues();
+		Cursor c = mDb.query("SELECT _id, uri FROM " + table, null);
+		while (c.next()) {
+			values.put("uri_hash", Utils.hashUri(c.getString(1)));
+			mDb.update(table, values, "_id=?", new String[] { c.getString(0) });
+		}
+		c.close();
+	}
+	
+	/**
+	 * (Re)builds the search index for the entries matching <code>where</code> (or all of them, if it's null).
+	 */
+	private void indexEntries(String where, String[] whereArgs) {
+		StringBuilder query = new StringBuilder();
+		query.append("SELECT _id, feed, title, author, content, compression, type ");
+		query.append("FROM entries JOIN entry_contents ON entry_contents.entry = entries._id");
+		if (!TextUtils.isEmpty(where)) {
+			query.append(" WHERE ").append(where);
+		}
+		
+		Cursor c = mDb.query(query.toString(), whereArgs);
+		while (c.next()) {
+			long entry = c.getLong(0);
+			mDb.delete(Afr.Entries.SQL.termsTableName, "entry=?", new String[] { Long.toString(entry) });
+			indexEntry(entry, c.getLong(1), c.getString(2), c.getString(3), 
+					ContentCompressor.decompress(c.getBlob(4), c.getInt(5)), c.getString(6));
+		}
+		c.close();
+	}
+	
+	/**
+	 * Adds an entry's terms to the search index.
+	 */
+	private void indexEntry(long entry, long feed, String title, String author, String content, String type) {
+		HashMap<String, Integer> terms = SearchIndex.terms(title, author, content, type);
+		
+		SQLiteStatement insert = getStatement(INSERT_TERM);
+		synchronized (insert) {
+			for (Map.Entry<String, Integer> term : terms.entrySet()) {
+				insert.bindString(1, term.getKey());
+				insert.bindLong(2, entry);
+				insert.bindLong(3, feed);
+				insert.bindLong(4, term.getValue());
+				insert.execute();
+			}
+		}
+	}
+	
+	/**
+	 * Looks a row up by its URI. The URI's hash finds the candidates through the index, and comparing 
+	 * the URI itself rules out any that only collide with it.
+	 * @return the row's id, or -1 if there is no such row
+	 */
+	private long findIdByUri(String table, String uri) {
+		SQLiteStatement find = getStatement(table.equals(Afr.Feeds.SQL.tableName) ? FIND_FEED_BY_URI : FIND_ENTRY_BY_URI);
+		synchronized (find) {
+			find.bindLong(1, Utils.hashUri(uri));
+			find.bindString(2, uri);
+			return find.simpleQueryForLong();
+		}
+	}
+	
+	/**
+	 * @return the compiled statement for <code>sql</code>, compiling it the first time it's asked for. The 
+	 * statement may be shared between threads, so synchronize on it while binding and executing it.
+	 */
+	private SQLiteStatement getStatement(String sql) {
+		synchronized (statements) {
+			SQLiteStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = mDb.compileStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+	}
+	
+	/**
+	 * Binds a value from a {@link ContentValues} to a compiled statement, going by the value's type.
+	 */
+	private static void bindValue(SQLiteStatement statement, int index, Object value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else if (value instanceof Boolean) {
+			statement.bindLong(index, ((Boolean) value).booleanValue() ? 1 : 0);
+		} else if (value instanceof Float || value instanceof Double) {
+			statement.bindDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Number) {
+			statement.bindLong(index, ((Number) value).longValue());
+		} else if (value instanceof byte[]) {
+			statement.bindBlob(index, (byte[]) value);
+		} else {
+			statement.bindString(index, value.toString());
+		}
+	}
+	
+	/**
+	 * @return a WHERE clause matching the (URL encoded) URI in the last segment of a FEED_URI or ENTRY_URI
+	 */
+	private static String makeUriWhere(ContentURI uri, ArrayList<String> args) {
+		String decoded;
+    	try {
+    		decoded = URLDecoder.decode(uri.getPathLeaf(), "utf-8");
+		} catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException("Couldn't decode filter URI: " + uri.getPathLeaf(), e);	
+		}
+		
+		// going by the hash first lets the lookup use the index
+		args.add(Long.toString(Utils.hashUri(decoded)));
+		args.add(decoded);
+		return "uri_hash=? AND uri=?";
+	}
+	
+	/**
+	 * Builds the WHERE clause picking out the feeds a URI refers to. The values taken from the URI are 
+	 * added to <code>args</code> to be bound, rather than being pasted into the SQL.
+	 */
+	private static String makeFeedsWhere(ContentURI uri, URIPatternIds type, ArrayList<String> args) {
+		switch (type) {
+		case FEED_ID:
+			args.add(Long.toString(uri.getPathLeafId()));
+			return Afr.FeedsColumns._ID + "=?";
+		case FEED_URI:
+			return makeUriWhere(uri, args);
+		case CATEGORY_FEEDS:
+			args.add(uri.getPathSegment(1));
+			return Afr.FeedsColumns._ID + " IN (SELECT feed FROM category_links WHERE category=?)";
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * Builds the WHERE clause picking out the entries a URI refers to. The values taken from the URI are 
+	 * added to <code>args</code> to be bound, rather than being pasted into the SQL.
+	 */
+	private static String makeEntriesWhere(ContentURI uri, URIPatternIds type, ArrayList<String> args) {
+		switch (type) {
+		case ENTRY_ID:
+			args.add(Long.toString(uri.getPathLeafId()));
+			return Afr.EntriesColumns._ID + "=?";
+		case FEED_ENTRY_ID:
+			args.add(uri.getPathSegment(1));
+			args.add(Long.toString(uri.getPathLeafId()));
+			return Afr.EntriesColumns.FEED + "=? AND " + Afr.EntriesColumns._ID + "=?";
+		case ENTRY_URI:
+			return makeUriWhere(uri, args);
+		case CATEGORY_ENTRIES:
+			args.add(uri.getPathSegment(1));
+			return Afr.EntriesColumns._ID + " IN (SELECT entry FROM category_links WHERE category=?)";
+		case FEED_ENTRIES:
+		case FEED_ENTRIES_AUTHORS:
+		case FEED_ENTRIES_SECTIONS:
+		case FEED_ENTRIES_SECTION_RANGES:
+			args.add(uri.getPathSegment(1));
+			return Afr.EntriesColumns.FEED + "=?";
+		case FEED_ENTRIES_FILTER_AUTHOR:
+			args.add(uri.getPathSegment(1));
+			args.add(uri.getPathLeaf());
+			return Afr.EntriesColumns.FEED + "=? AND " + Afr.EntriesColumns.AUTHOR + " LIKE ?";
+		case FEED_ENTRIES_FILTER_CATEGORY:
+			// the category is given by name
+			args.add(uri.getPathSegment(1));
+			args.add(uri.getPathLeaf());
+			return Afr.EntriesColumns.FEED + "=? AND " + Afr.EntriesColumns._ID + " IN (" +
+				"SELECT cl.entry FROM category_links cl, categories c WHERE cl.category = c._id AND c.name LIKE ?)";
+		case FEED_ENTRIES_FILTER_READ:
+			args.add(uri.getPathSegment(1));
+			return Afr.EntriesColumns.FEED + "=? AND " + Afr.EntriesColumns.READ + "=1";
+		case FEED_ENTRIES_FILTER_UNREAD:
+			args.add(uri.getPathSegment(1));
+			return Afr.EntriesColumns.FEED + "=? AND " + Afr.EntriesColumns.READ + "=0";
+		case FEED_ENTRIES_READ_STATE:
+			args.add(uri.getPathSegment(1));
+			return Afr.EntriesColumns.FEED + "=?";
+		case FEED_ENTRIES_READ_STATE_BEFORE:
+			args.add(uri.getPathSegment(1));
+			args.add(Long.toString(uri.getPathLeafId()));
+			return Afr.EntriesColumns.FEED + "=? AND " + Afr.EntriesColumns.DATE + "<?";
+		case ENTRIES_READ_STATE_BEFORE:
+			args.add(Long.toString(uri.getPathLeafId()));
+			return Afr.EntriesColumns.DATE + "<?";
+		case ENTRIES_READ_STATE_IDS:
+			return makeIdListWhere(uri.getPathLeaf());
+		case CATEGORY_ENTRIES_READ_STATE:
+			// the entries of the feeds in the category, as well as the entries filed under it themselves
+			args.add(uri.getPathSegment(1));
+			args.add(uri.getPathSegment(1));
+			return "(" + Afr.EntriesColumns.FEED + " IN (SELECT feed FROM category_links WHERE entry IS NULL AND category=?) OR " + 
+				Afr.EntriesColumns._ID + " IN (SELECT entry FROM category_links WHERE category=?))";
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @return a WHERE clause matching the entries in a comma separated list of ids. The ids are checked 
+	 * to be numbers and written into the SQL, since a long list could run past how many arguments SQLite 
+	 * will bind.
+	 */
+	private static String makeIdListWhere(String ids) {
+		StringBuilder where = new StringBuilder(Afr.EntriesColumns._ID).append(" IN (");
+		String[] split = ids.split(",");
+		for (int i = 0; i < split.length; i++) {
+			try {
+				where.append(i == 0 ? "" : ", ").append(Long.parseLong(split[i].trim()));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not an entry id: " + split[i], e);
+			}
+		}
+		
+		return where.append(')').toString();
+	}
+	
+	/**
+	 * Builds the WHERE clause picking out the categories a URI refers to. The values taken from the URI are 
+	 * added to <code>args</code> to be bound, rather than being pasted into the SQL.
+	 */
+	private static String makeCategoriesWhere(ContentURI uri, URIPatternIds type, ArrayList<String> args) {
+		switch (type) {
+		case CATEGORY_ID:
+			args.add(Long.toString(uri.getPathLeafId()));
+			return Afr.CategoriesColumns._ID + "=?";
+		case FEED_CATEGORIES:
+			args.add(uri.getPathSegment(1));
+			return Afr.CategoriesColumns._ID + " IN (SELECT category FROM category_links WHERE entry IS NULL AND feed=?)";
+		case FEED_ENTRIES_CATEGORIES:
+			args.add(uri.getPathSegment(1));
+			return Afr.CategoriesColumns._ID + " IN (SELECT category FROM category_links WHERE entry IS NOT NULL AND feed=?)";
+		case FEED_ENTRY_CATEGORIES:
+			args.add(uri.getPathSegment(1));
+			args.add(uri.getPathSegment(3));
+			return Afr.CategoriesColumns._ID + " IN (SELECT category FROM category_links WHERE feed=? AND entry=?)";
+		case ENTRY_CATEGORIES:
+			args.add(uri.getPathSegment(1));
+			return Afr.CategoriesColumns._ID + " IN (SELECT category FROM category_links WHERE entry=?)";
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @return <code>where</code> and the caller's selection, ANDed together
+	 */
+	private static String andSelection(String where, String selection) {
+		if (TextUtils.isEmpty(selection)) {
+			return where;
+		} else if (TextUtils.isEmpty(where)) {
+			return selection;
+		}
+		
+		return where + " AND (" + selection + ")";
+	}
+	
+	/**
+	 * @return the column to section entries by, if it's one of {@link Afr.Sections#COLUMNS}
+	 */
+	private static String sectionColumn(String column) {
+		for (String c : Afr.Sections.COLUMNS) {
+			if (c.equals(column)) {
+				return c;
+			}
+		}
+		throw new IllegalArgumentException("Entries can't be sectioned by " + column);
+	}
+	
+	/**
+	 * Builds the CASE numbering the range <code>column</code> falls in, with a placeholder for each bound.
+	 * @param endpoints the start and end type of each range (see {@link Afr.Sections#ranges})
+	 * @param bounds where the bounds are added, as they're taken from the front of <code>selectionArgs</code>
+	 */
+	private static String makeRangesCase(String column, String endpoints, String[] selectionArgs, ArrayList<String> bounds) {
+		if (endpoints.length() == 0 || endpoints.length() % 2 != 0) {
+			throw new IllegalArgumentException("Every range needs a start and an end: " + endpoints);
+		}
+		
+		// each entry is counted in the first range it falls in
+		StringBuilder expression = new StringBuilder("CASE");
+		for (int i = 0; i < endpoints.length(); i += 2) {
+			String start = rangeCondition(column, endpoints.charAt(i), " >= ?", " > ?");
+			String end = rangeCondition(column, endpoints.charAt(i + 1), " <= ?", " < ?");
+			expression.append(" WHEN ");
+			if (start == null && end == null) {
+				expression.append("1");
+			} else {
+				if (start != null) {
+					expression.append(start);
+				}
+				if (end != null) {
+					expression.append(start != null ? " AND " : "").append(end);
+				}
+			}
+			expression.append(" THEN ").append(i / 2);
+			
+			int needed = (start != null ? 1 : 0) + (end != null ? 1 : 0);
+			for (int j = 0; j < needed; j++) {
+				if (selectionArgs == null || bounds.size() >= selectionArgs.length) {
+					throw new IllegalArgumentException("Missing bounds for the ranges " + endpoints);
+				}
+				bounds.add(selectionArgs[bounds.size()]);
+			}
+		}
+		expression.append(" ELSE -1 END");
+		
+		return expression.toString();
+	}
+	
+	/**
+	 * @return the condition for one end of a range, or null if it's unbounded
+	 */
+	private static String rangeCondition(String column, char type, String included, String excluded) {
+		switch (type) {
+		case Afr.Sections.INCLUDED:
+			return column + included;
+		case Afr.Sections.EXCLUDED:
+			return column + excluded;
+		case Afr.Sections.UNBOUNDED:
+			return null;
+		default:
+			throw new IllegalArgumentException("Unknown range endpoint type: " + type);
+		}
+	}
+	
+	/**
+	 * @return the arguments taken from the URI followed by the caller's selection arguments, or null if there are none
+	 */
+	private static String[] concatArgs(ArrayList<String> args, String[] selectionArgs) {
+		if (selectionArgs != null) {
+			for (String arg : selectionArgs) {
+				args.add(arg);
+			}
+		}
 		
-		bootstrapDatabase();
+		return args.isEmpty() ? null : args.toArray(new String[args.size()]);
 	}
 
 	@Override
@@ -180,6 +705,8 @@ public class AfrProvider extends DatabaseContentProvider {
 		case FEED_ENTRIES_FILTER_READ:
 		case FEED_ENTRIES_FILTER_UNREAD:
             return deleteEntries(uri, type,selection, selectionArgs);
+		case TOMBSTONES:
+            return mDb.delete(Afr.Tombstones.SQL.tableName, selection, selectionArgs);
 		case CATEGORIES:
 		case CATEGORY_ID:
 		case FEED_CATEGORIES:
@@ -193,173 +720,68 @@ public class AfrProvider extends DatabaseContentProvider {
 	}
 	
 	private int deleteFeeds(ContentURI uri, URIPatternIds type, String selection, String[] selectionArgs) {
-		StringBuilder where = new StringBuilder();
-		
-		switch (type) {
-		case FEED_ID:
-			where.append(Afr.FeedsColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_URI:
-        	try {
-    			where.append(Afr.FeedsColumns.URI).append("='").append(URLDecoder.decode(uri.getPathLeaf(), "utf-8")).append('\'');
-    		} catch (UnsupportedEncodingException e) {
-                throw new IllegalArgumentException("Couldn't decode filter URI: " + uri.getPathLeaf(), e);	
-    		}
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case CATEGORY_FEEDS:
-			where.append(Afr.FeedsColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT f.id "); 
-			where.append("FROM feeds f, categories c, category_links cl ");
-			where.append("WHERE f._id = cl.feed AND cl.category.category = c._id AND c._id=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEEDS:
-			break;
-		}
+		ArrayList<String> args = new ArrayList<String>();
+		String where = andSelection(makeFeedsWhere(uri, type, args), selection);
 		
-		return mDb.delete(Afr.Feeds.SQL.tableName, where.toString(), selectionArgs);
+		return mDb.delete(Afr.Feeds.SQL.tableName, where, concatArgs(args, selectionArgs));
 	}
 	
 	private int deleteEntries(ContentURI uri, URIPatternIds type, String selection, String[] selectionArgs) {
-		StringBuilder where = new StringBuilder();
+		ArrayList<String> args = new ArrayList<String>();
+		String where = andSelection(makeEntriesWhere(uri, type, args), selection);
+		String[] whereArgs = concatArgs(args, selectionArgs);
 		
-		switch (type) {
-		case ENTRY_ID:
-			where.append(Afr.EntriesColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRY_ID:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case ENTRY_URI:
-        	try {
-    			where.append(Afr.EntriesColumns.URI).append("='").append(URLDecoder.decode(uri.getPathLeaf(), "utf-8")).append('\'');
-    		} catch (UnsupportedEncodingException e) {
-                throw new IllegalArgumentException("Couldn't decode filter URI: " + uri.getPathLeaf(), e);	
-    		}
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case CATEGORY_ENTRIES:
-			where.append(Afr.EntriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT e.id "); 
-			where.append("FROM entries e, categories c, category_links cl ");
-			where.append("WHERE e._id = cl.entry AND cl.category = c._id AND c._id=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES_FILTER_AUTHOR:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns.AUTHOR).append(" LIKE '").append(uri.getPathLeaf()).append('\'');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES_FILTER_CATEGORY:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT e.id "); 
-			where.append("FROM entries e, categories c, category_links cl ");
-			where.append("WHERE e._id = cl.entry AND cl.category = c._id AND c._id=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES_FILTER_READ:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns.READ).append("=1");
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES_FILTER_UNREAD:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns.READ).append("=0");
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case ENTRIES:
-			break;
+		int count;
+		mDb.beginTransaction();
+		try {
+			buryEntries(where, whereArgs);
+			count = mDb.delete(Afr.Entries.SQL.tableName, where, whereArgs);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
 		}
 		
-		return mDb.delete(Afr.Entries.SQL.tableName, where.toString(), selectionArgs);
+		if (count > 0) {
+			getContext().getContentResolver().notifyChange(Afr.Entries.CONTENT_URI, null);
+			getContext().getContentResolver().notifyChange(Afr.Entries.CONTENTS_CHANGED_URI, null);
+			// the feeds' counts have changed too
+			getContext().getContentResolver().notifyChange(Afr.Feeds.CONTENT_URI, null);
+		}
+		
+		return count;
 	}
 
-	private int deleteCategories(ContentURI uri, URIPatternIds type, String selection, String[] selectionArgs) {
-		StringBuilder where = new StringBuilder();
+	/**
+	 * Leaves a tombstone for each of the entries that are about to be deleted, so the feed retriever 
+	 * knows not to bring them back.
+	 */
+	private void buryEntries(String where, String[] selectionArgs) {
+		StringBuilder query = new StringBuilder();
+		query.append("SELECT ").append(Afr.EntriesColumns.URI).append(", ").append(Afr.EntriesColumns.FEED).append(' ');
+		query.append("FROM ").append(Afr.Entries.SQL.tableName);
+		if (!TextUtils.isEmpty(where)) {
+			query.append(" WHERE ").append(where);
+		}
 		
-		switch (type) {
-		case CATEGORY_ID:
-			where.append(Afr.CategoriesColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.entry IS NULL AND cl.category = c._id AND cl.feed=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.entry IS NOT NULL AND cl.category = c._id AND cl.feed=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRY_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.category = c._id AND cl.feed=").append(uri.getPathSegment(1));
-			where.append(" AND cl.entry=").append(uri.getPathSegment(3)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case ENTRY_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.category = c._id AND cl.entry=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+		long now = System.currentTimeMillis();
+		SQLiteStatement insert = getStatement(INSERT_TOMBSTONE);
+		Cursor c = mDb.query(query.toString(), selectionArgs);
+		synchronized (insert) {
+			while (c.next()) {
+				insert.bindLong(1, Utils.hashUri(c.getString(0)));
+				insert.bindLong(2, c.getLong(1));
+				insert.bindLong(3, now);
+				insert.execute();
 			}
-			break;
-		case CATEGORIES:
-			break;
 		}
+		c.close();
+	}
+
+	private int deleteCategories(ContentURI uri, URIPatternIds type, String selection, String[] selectionArgs) {
+		ArrayList<String> args = new ArrayList<String>();
+		String where = andSelection(makeCategoriesWhere(uri, type, args), selection);
 		
-		return mDb.delete(Afr.Categories.SQL.tableName, where.toString(), selectionArgs);
+		return mDb.delete(Afr.Categories.SQL.tableName, where, concatArgs(args, selectionArgs));
 	}
 
 	@Override
@@ -408,6 +830,13 @@ public class AfrProvider extends DatabaseContentProvider {
 			throw new IllegalArgumentException("Feed URL cannot be null");
 		}
 
+		// only the URI's hash is indexed, so duplicates are turned away here rather than by the table
+		String feedUri = values.getAsString(Afr.FeedsColumns.URI);
+		if (findIdByUri(Afr.Feeds.SQL.tableName, feedUri) != -1) {
+			throw new SQLException("Feed " + feedUri + " already exists");
+		}
+		values.put(Afr.FeedsColumns.URI_HASH, Utils.hashUri(feedUri));
+		
         Long now = Long.valueOf(System.currentTimeMillis());
         values.put(Afr.FeedsColumns.LAST_CHECKED, now);
 		
@@ -421,10 +850,75 @@ public class AfrProvider extends DatabaseContentProvider {
 		throw new SQLException("Failed to insert row into " + uri);
 	}
 
+	@Override
+	public int bulkInsert(ContentURI uri, ContentValues[] values) {
+		URIPatternIds type = URIPatternIds.get(URI_MATCHER.match(uri));
+		if (type != URIPatternIds.ENTRIES && type != URIPatternIds.FEED_ENTRIES) {
+			return super.bulkInsert(uri, values);
+		}
+		
+		// insert all the entries in one transaction, and only tell observers about it once we're done
+		HashSet<Long> feeds = new HashSet<Long>();
+		int inserted = 0;
+		
+		mDb.beginTransaction();
+		try {
+			for (ContentValues entry : values) {
+				// one bad entry is skipped, rather than losing the whole batch with it
+				try {
+					if (insertEntryRow(uri, type, entry) > 0) {
+						feeds.add(entry.getAsLong(Afr.EntriesColumns.FEED));
+						inserted++;
+					} else {
+						Log.w(TAG, "Failed to insert entry " + entry.getAsString(Afr.EntriesColumns.URI) + " into " + uri);
+					}
+				} catch (IllegalArgumentException e) {
+					Log.w(TAG, "Skipping invalid entry " + (entry != null ? entry.getAsString(Afr.EntriesColumns.URI) : null) + 
+							" for " + uri, e);
+				} catch (SQLException e) {
+					Log.w(TAG, "Failed to insert entry " + entry.getAsString(Afr.EntriesColumns.URI) + " into " + uri, e);
+				}
+			}
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		if (inserted > 0) {
+			getContext().getContentResolver().notifyChange(Afr.Entries.CONTENT_URI, null);
+			for (Long feed : feeds) {
+				getContext().getContentResolver().notifyChange(Afr.Feeds.CONTENT_URI.addId(feed), null);
+			}
+		}
+		
+		return inserted;
+	}
+	
 	private ContentURI insertEntry(ContentURI uri, URIPatternIds type, ContentValues values) {
 		if (values == null) {
 			values = new ContentValues();
 		}
+		
+		long rowId = insertEntryRow(uri, type, values);
+		if (rowId > 0) {
+			ContentURI newUri = Afr.Entries.CONTENT_URI.addId(rowId);
+			getContext().getContentResolver().notifyChange(newUri, null);
+	        // notfiy observers of the item parent as well (in case they need to update counts, etc...)
+	        getContext().getContentResolver().notifyChange(Afr.Feeds.CONTENT_URI.addId(values.getAsLong(Afr.EntriesColumns.FEED)), null);
+			return newUri;
+		}
+		
+		throw new SQLException("Failed to insert row into " + uri);
+	}
+	
+	/**
+	 * Checks an entry's values and inserts it, without notifying anyone.
+	 * @return the new row id, or -1 if the insert failed
+	 */
+	private long insertEntryRow(ContentURI uri, URIPatternIds type, ContentValues values) {
+		if (values == null) {
+			values = new ContentValues();
+		}
 
 		if (type != URIPatternIds.FEED_ENTRIES) {
 			if (!values.containsKey(Afr.EntriesColumns.FEED)) {
@@ -434,7 +928,7 @@ public class AfrProvider extends DatabaseContentProvider {
 			values.put(Afr.EntriesColumns.FEED, uri.getPathSegment(1));
 		}
 		
-		if (type != URIPatternIds.FEED_URI) {
+		if (type != URIPatternIds.ENTRY_URI) {
 			if (!values.containsKey(Afr.EntriesColumns.URI)) {
 				throw new IllegalArgumentException("Entry URI cannot be null");
 			}
@@ -459,17 +953,64 @@ public class AfrProvider extends DatabaseContentProvider {
 		if (!values.containsKey(Afr.EntriesColumns.DATE)) {
 	        values.put(Afr.EntriesColumns.DATE, now);
 		}
+		if (!values.containsKey(Afr.EntriesColumns.READ)) {
+			values.put(Afr.EntriesColumns.READ, Boolean.FALSE);
+		}
+		
+		// only the URI's hash is indexed, so duplicates are turned away here rather than by the table
+		String entryUri = values.getAsString(Afr.EntriesColumns.URI);
+		if (findIdByUri(Afr.Entries.SQL.tableName, entryUri) != -1) {
+			return -1;
+		}
+		values.put(Afr.EntriesColumns.URI_HASH, Utils.hashUri(entryUri));
+		String content = values.getAsString(Afr.EntriesColumns.CONTENT);
+		ContentValues contents = takeContents(values);
+		
+		// the usual columns go through a compiled statement; anything else is left to insert() to sort out
+		long rowId;
+		if (values.size() == countKeys(values, insertEntryColumns)) {
+			SQLiteStatement insert = getStatement(INSERT_ENTRY);
+			synchronized (insert) {
+				for (int i = 0; i < insertEntryColumns.length; i++) {
+					bindValue(insert, i + 1, values.get(insertEntryColumns[i]));
+				}
+				rowId = insert.executeInsert();
+			}
+		} else {
+			rowId = mDb.insert(Afr.Entries.SQL.tableName, Afr.EntriesColumns.URI, values);
+		}
 		
-		long rowId = mDb.insert(Afr.Entries.SQL.tableName, Afr.EntriesColumns.URI, values);
 		if (rowId > 0) {
-			ContentURI newUri = Afr.Entries.CONTENT_URI.addId(rowId);
-			getContext().getContentResolver().notifyChange(newUri, null);
-	        // notfiy observers of the item parent as well (in case they need to update counts, etc...)
-	        getContext().getContentResolver().notifyChange(Afr.Feeds.CONTENT_URI.addId(values.getAsLong(Afr.EntriesColumns.FEED)), null);
-			return newUri;
+			try {
+				SQLiteStatement insert = getStatement(INSERT_ENTRY_CONTENTS);
+				synchronized (insert) {
+					insert.bindLong(1, rowId);
+					bindValue(insert, 2, contents.get(Afr.EntriesColumns.CONTENT));
+					bindValue(insert, 3, contents.get(Afr.EntriesColumns.COMPRESSION));
+					bindValue(insert, 4, contents.get(Afr.EntriesColumns.RENDERED));
+					insert.executeInsert();
+				}
+				
+				indexEntry(rowId, values.getAsLong(Afr.EntriesColumns.FEED), values.getAsString(Afr.EntriesColumns.TITLE), 
+						values.getAsString(Afr.EntriesColumns.AUTHOR), content, values.getAsString(Afr.EntriesColumns.TYPE));
+			} catch (SQLException e) {
+				// don't leave half an entry behind (the triggers take whatever else was stored for it)
+				mDb.delete(Afr.Entries.SQL.tableName, Afr.EntriesColumns._ID + "=?", new String[] { Long.toString(rowId) });
+				throw e;
+			}
 		}
 		
-		throw new SQLException("Failed to insert row into " + uri);
+		return rowId;
+	}
+	
+	private static int countKeys(ContentValues values, String[] keys) {
+		int count = 0;
+		for (String key : keys) {
+			if (values.containsKey(key)) {
+				count++;
+			}
+		}
+		return count;
 	}
 	
 	private ContentURI insertCategory(ContentURI uri, URIPatternIds type, ContentValues values) {
@@ -552,7 +1093,22 @@ public class AfrProvider extends DatabaseContentProvider {
 	protected Cursor queryInternal(ContentURI uri, String[] projection,
 			String selection, String[] selectionArgs, 
 			String groupBy, String having, String sortOrder) {
+		// the limit is taken off before the URI is matched, and put back as a LIMIT clause by queryEntries()
+		String limit = null;
+		Matcher limitSuffix = LIMIT_SUFFIX.matcher(uri.toString());
+		if (limitSuffix.matches()) {
+			uri = ContentURI.create(limitSuffix.group(1));
+			limit = limitSuffix.group(2);
+			if (limitSuffix.group(3) != null) {
+				limit += " OFFSET " + limitSuffix.group(3);
+			}
+		}
+		
 		URIPatternIds type = URIPatternIds.get(URI_MATCHER.match(uri));
+		if (limit != null && !LIMITED_TYPES.contains(type)) {
+			throw new IllegalArgumentException("Only lists of entries can be limited: " + uri);
+		}
+		
 		switch (type) {
 		case FEEDS:
 		case CATEGORY_FEEDS:
@@ -570,7 +1126,11 @@ public class AfrProvider extends DatabaseContentProvider {
 		case FEED_ENTRIES_FILTER_READ:
 		case FEED_ENTRIES_FILTER_UNREAD:
 		case FEED_ENTRIES_AUTHORS:
-            return queryEntries(uri, type, projection, selection, selectionArgs, groupBy, having, sortOrder);
+		case FEED_ENTRIES_SECTIONS:
+		case FEED_ENTRIES_SECTION_RANGES:
+		case FEED_ENTRIES_SEARCH:
+		case ENTRIES_SEARCH:
+            return queryEntries(uri, type, projection, selection, selectionArgs, groupBy, having, sortOrder, limit);
 		case CATEGORIES:
 		case CATEGORY_ID:
 		case FEED_CATEGORIES:
@@ -578,6 +1138,8 @@ public class AfrProvider extends DatabaseContentProvider {
 		case FEED_ENTRY_CATEGORIES:
 		case ENTRY_CATEGORIES:
             return queryCategories(uri, type, projection, selection, selectionArgs, groupBy, having, sortOrder);
+		case TOMBSTONES:
+            return queryTombstones(projection, selection, selectionArgs, groupBy, having, sortOrder);
 		default:
             throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
@@ -587,182 +1149,241 @@ public class AfrProvider extends DatabaseContentProvider {
 			String selection, String[] selectionArgs, 
 			String groupBy, String having, String sortOrder) {
 		QueryBuilder qb = new QueryBuilder();
+		qb.setTables(Afr.Feeds.SQL.tableName);
 		
-		switch (type) {
-		case FEEDS:
-			qb.setTables(Afr.Feeds.SQL.tableName);
-			break;
-		case FEED_ID:
-			qb.setTables(Afr.Feeds.SQL.tableName);
-			qb.appendWhere(Afr.FeedsColumns._ID + "=" + uri.getPathLeafId());
-			break;
-		case FEED_URI:
-			qb.setTables(Afr.Feeds.SQL.tableName);
-        	try {
-        		qb.appendWhere("uri='" + URLDecoder.decode(uri.getPathLeaf(), "utf-8")+"'");
-    		} catch (UnsupportedEncodingException e) {
-                throw new IllegalArgumentException("Couldn't decode filter URI: " + uri.getPathLeaf(), e);	
-    		}
-        	break;
-		case CATEGORY_FEEDS:
-			qb.setTables(Afr.Feeds.SQL.tableName + " f, " + Afr.Categories.SQL.tableName + " c, " + Afr.CategoryLinks.SQL.tableName + " cl");
-			qb.appendWhere("f._id = cl.feed AND cl.category = " + uri.getPathSegment(1));
-			qb.setDistinct(true);
-			qb.setProjectionMap(feedsColumnMap);
-			break;
+		ArrayList<String> args = new ArrayList<String>();
+		String where = makeFeedsWhere(uri, type, args);
+		if (where != null) {
+			qb.appendWhere(where);
 		}
 		
         if (TextUtils.isEmpty(sortOrder)) {
         	sortOrder = Afr.Feeds.DEFAULT_SORT_ORDER;
         }
 
-        Cursor c = qb.query(mDb, projection, selection, selectionArgs, groupBy, having, sortOrder);
+        Cursor c = qb.query(mDb, projection, selection, concatArgs(args, selectionArgs), groupBy, having, sortOrder);
         c.setNotificationUri(getContext().getContentResolver(), uri);
         
 		return c;
 	}
 	
+	/**
+	 * @param limit the LIMIT clause for the entries (from the URI), or null for all of them
+	 */
 	private Cursor queryEntries(ContentURI uri, URIPatternIds type, String[] projection,
 			String selection, String[] selectionArgs, 
-			String groupBy, String having, String sortOrder) {
+			String groupBy, String having, String sortOrder, String limit) {
 		QueryBuilder qb = new QueryBuilder();
 		
-		switch (type) {
-		case ENTRIES:
-			qb.setTables(Afr.Entries.SQL.tableName);
-			break;
-		case FEED_ENTRIES:
-			qb.setTables(Afr.Entries.SQL.tableName);
-			qb.appendWhere(Afr.EntriesColumns.FEED + '=' + uri.getPathSegment(1));
-			break;
-		case ENTRY_ID:
-			qb.setTables(Afr.Entries.SQL.tableName);
-			qb.appendWhere(Afr.EntriesColumns._ID + '=' + uri.getPathLeafId());
-			break;
-		case ENTRY_URI:
-			qb.setTables(Afr.Entries.SQL.tableName);
-        	try {
-        		qb.appendWhere("uri='" + URLDecoder.decode(uri.getPathLeaf(), "utf-8")+"'");
-    		} catch (UnsupportedEncodingException e) {
-                throw new IllegalArgumentException("Couldn't decode filter URI: " + uri.getPathLeaf(), e);	
-    		}
-        	break;
-		case FEED_ENTRY_ID:
-			qb.setTables(Afr.Entries.SQL.tableName);
-			qb.appendWhere(Afr.EntriesColumns.FEED + '=' + uri.getPathSegment(1));
-			qb.appendWhere(" AND " + Afr.EntriesColumns._ID + '=' + uri.getPathLeafId());
-			break;
-		case CATEGORY_ENTRIES:
-			qb.setTables(Afr.Entries.SQL.tableName + " e, " + Afr.Categories.SQL.tableName + " c, " + Afr.CategoryLinks.SQL.tableName + " cl");
-			qb.appendWhere("e._id = cl.entry");
-			qb.appendWhere(" AND cl.category = " + uri.getPathSegment(1));
-			qb.setDistinct(true);
-			qb.setProjectionMap(entriesColumnMap);
-			break;
-		case FEED_ENTRIES_FILTER_AUTHOR:
-			qb.setTables(Afr.Entries.SQL.tableName);
-			qb.appendWhere(Afr.EntriesColumns.FEED + '=' + uri.getPathSegment(1));
-			qb.appendWhere(" AND " + Afr.EntriesColumns.AUTHOR + " LIKE '" + uri.getPathLeaf() + '\'');
-			break;
-		case FEED_ENTRIES_FILTER_CATEGORY:
-			qb.setTables(Afr.Entries.SQL.tableName + " e, " + Afr.Categories.SQL.tableName + " c, " + Afr.CategoryLinks.SQL.tableName + " cl");
-			qb.appendWhere("e.feed" + '=' + uri.getPathSegment(1));
-			qb.appendWhere(" AND e._id = cl.entry");
-			qb.appendWhere(" AND cl.category LIKE '" + uri.getPathLeaf() + '\'');
+		// the contents are only joined in for a single entry, or when they're asked for
+		boolean joinContents;
+		if (projection == null) {
+			joinContents = type == URIPatternIds.ENTRY_ID || type == URIPatternIds.FEED_ENTRY_ID || type == URIPatternIds.ENTRY_URI;
+			if (joinContents) {
+				projection = entryProjection;
+			}
+		} else {
+			joinContents = usesContents(projection);
+		}
+		
+		String entries = Afr.Entries.SQL.tableName;
+		if (joinContents) {
+			entries += " JOIN " + Afr.Entries.SQL.contentsTableName + " ON entry_contents.entry = entries._id";
+		}
+		
+		ArrayList<String> args = new ArrayList<String>();
+		if (type == URIPatternIds.ENTRIES_SEARCH || type == URIPatternIds.FEED_ENTRIES_SEARCH) {
+			// the search's arguments come first, since the join comes before the WHERE clause
+			entries += " JOIN " + makeSearchJoin(uri, type, args) + " ON hit = entries._id";
+	        if (TextUtils.isEmpty(sortOrder)) {
+	        	sortOrder = Afr.Entries.SEARCH_SORT_ORDER;
+	        }
+		}
+		String where = makeEntriesWhere(uri, type, args);
+		
+		if (type == URIPatternIds.FEED_ENTRIES_AUTHORS) {
+			StringBuilder query = new StringBuilder();
+			query.append("SELECT author, feed, count(*) AS ").append(Afr.AuthorsColumns.NUM_POSTED).append(' ');
+			query.append("FROM ").append(Afr.Entries.SQL.tableName).append(' ');
+			query.append("WHERE ").append(andSelection(where, selection)).append(' ');
+			query.append("GROUP BY lower(author) ");
 			
-			qb.setDistinct(true);
-			qb.setProjectionMap(entriesColumnMap);
+			Cursor c = mDb.query(query.toString(), concatArgs(args, selectionArgs));
+	        c.setNotificationUri(getContext().getContentResolver(), uri);
+			return c;
+		}
+		
+		if (type == URIPatternIds.FEED_ENTRIES_SECTIONS || type == URIPatternIds.FEED_ENTRIES_SECTION_RANGES) {
+			// the column is only ever one of ours, and the bounds of ranges are arguments, never SQL
+			String section = sectionColumn(uri.getPathSegment(4));
+			ArrayList<String> sectionArgs = new ArrayList<String>();
+			if (type == URIPatternIds.FEED_ENTRIES_SECTION_RANGES) {
+				section = makeRangesCase(section, uri.getPathSegment(6), selectionArgs, sectionArgs);
+				int bounds = sectionArgs.size();
+				if (bounds > 0) {
+					String[] rest = new String[selectionArgs.length - bounds];
+					System.arraycopy(selectionArgs, bounds, rest, 0, rest.length);
+					selectionArgs = rest;
+				}
+			}
+			sectionArgs.addAll(args);
 			
-			qb.setTables(Afr.Entries.SQL.tableName);
-			qb.appendWhere(Afr.EntriesColumns.AUTHOR + " LIKE '" + uri.getPathLeaf() + '\'');
-			break;
-		case FEED_ENTRIES_FILTER_READ:
-			qb.setTables(Afr.Entries.SQL.tableName);
-			qb.appendWhere(Afr.EntriesColumns.FEED + '=' + uri.getPathSegment(1));
-			qb.appendWhere(" AND " + Afr.EntriesColumns.READ + "=1");
-			break;
-		case FEED_ENTRIES_FILTER_UNREAD:
-			qb.setTables(Afr.Entries.SQL.tableName);
-			qb.appendWhere(Afr.EntriesColumns.FEED + '=' + uri.getPathSegment(1));
-			qb.appendWhere(" AND " + Afr.EntriesColumns.READ + "=0");
-			break;
-		case FEED_ENTRIES_AUTHORS:
+			// one pass over the feed's entries, without reading a single row back
 			StringBuilder query = new StringBuilder();
-			query.append("SELECT author, feed, count(*) AS num_count ");
+			query.append("SELECT ").append(section).append(" AS ").append(Afr.SectionsColumns.SECTION).append(", ");
+			query.append("count(*) AS ").append(Afr.SectionsColumns.COUNT).append(' ');
 			query.append("FROM ").append(Afr.Entries.SQL.tableName).append(' ');
-			query.append("WHERE feed =").append(uri.getPathSegment(1)).append(' ');
-			if (!TextUtils.isEmpty(selection)) {
-				query.append("AND (").append(selection).append(") ");
-			}
-			query.append("GROUP BY lower(author) ");
+			query.append("WHERE ").append(andSelection(where, selection)).append(' ');
+			query.append("GROUP BY ").append(Afr.SectionsColumns.SECTION);
 			
-			Cursor c = mDb.query(query.toString(), selectionArgs);
+			Cursor c = mDb.query(query.toString(), concatArgs(sectionArgs, selectionArgs));
 	        c.setNotificationUri(getContext().getContentResolver(), uri);
 			return c;
 		}
 		
+		qb.setTables(entries);
+		if (where != null) {
+			qb.appendWhere(where);
+		}
+		
         if (TextUtils.isEmpty(sortOrder)) {
         	sortOrder = Afr.Entries.DEFAULT_SORT_ORDER;
         }
+        if (limit != null) {
+        	// QueryBuilder has no limit of its own, so it goes after the ORDER BY (it's only ever digits)
+        	sortOrder += " LIMIT " + limit;
+        }
+        
+        // the content has to be decompressed, and for that we need to know how it was compressed
+        boolean withContent = projection != null && contains(projection, Afr.EntriesColumns.CONTENT);
+        boolean withRendered = projection != null && contains(projection, Afr.EntriesColumns.RENDERED);
+        boolean addedCompression = false;
+        if (withContent && !contains(projection, Afr.EntriesColumns.COMPRESSION)) {
+        	String[] expanded = new String[projection.length + 1];
+        	System.arraycopy(projection, 0, expanded, 0, projection.length);
+        	expanded[projection.length] = Afr.EntriesColumns.COMPRESSION;
+        	projection = expanded;
+        	addedCompression = true;
+        }
 
-        Cursor c = qb.query(mDb, projection, selection, selectionArgs, groupBy, having, sortOrder);
+        Cursor c = qb.query(mDb, projection, selection, concatArgs(args, selectionArgs), groupBy, having, sortOrder);
+        if (withContent || withRendered) {
+        	c = new DecompressingCursor(c, addedCompression);
+        }
         c.setNotificationUri(getContext().getContentResolver(), uri);
         
 		return c;
 	}
 	
+	/**
+	 * Builds the subquery finding the entries that have every one of the search's terms, along with their 
+	 * scores (the total weight of the terms matched). Each entry has at most one row per term, so counting 
+	 * an entry's rows tells how many of the terms it has.
+	 */
+	private static String makeSearchJoin(ContentURI uri, URIPatternIds type, ArrayList<String> args) {
+		String query;
+    	try {
+    		query = URLDecoder.decode(uri.getPathLeaf(), "utf-8");
+		} catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException("Couldn't decode search query: " + uri.getPathLeaf(), e);	
+		}
+		
+		List<String> terms = SearchIndex.queryTerms(query);
+		if (terms.isEmpty()) {
+			// nothing in the query is indexed, so look for a term that can't be there
+			terms.add("");
+		}
+		
+		StringBuilder join = new StringBuilder("(SELECT entry AS hit, sum(weight) AS score FROM entry_terms WHERE term IN (");
+		for (int i = 0; i < terms.size(); i++) {
+			join.append(i == 0 ? "?" : ", ?");
+			args.add(terms.get(i));
+		}
+		join.append(')');
+		if (type == URIPatternIds.FEED_ENTRIES_SEARCH) {
+			join.append(" AND feed=?");
+			args.add(uri.getPathSegment(1));
+		}
+		join.append(" GROUP BY entry HAVING count(*) = ").append(terms.size()).append(')');
+		
+		return join.toString();
+	}
+	
+	/**
+	 * Takes the entry content and rendered entry out of <code>values</code>, since they are stored in a 
+	 * table of their own.
+	 * @return the compressed content and rendered entry, ready for the entry contents table
+	 */
+	private static ContentValues takeContents(ContentValues values) {
+		ContentValues contents = new ContentValues();
+		String content = values.getAsString(Afr.EntriesColumns.CONTENT);
+		if (content != null) {
+			contents.put(Afr.EntriesColumns.CONTENT, ContentCompressor.compress(content));
+			contents.put(Afr.EntriesColumns.COMPRESSION, ContentCompressor.DEFLATE);
+		}
+		String rendered = values.getAsString(Afr.EntriesColumns.RENDERED);
+		if (rendered != null) {
+			contents.put(Afr.EntriesColumns.RENDERED, ContentCompressor.compress(rendered));
+		}
+		values.remove(Afr.EntriesColumns.CONTENT);
+		values.remove(Afr.EntriesColumns.COMPRESSION);
+		values.remove(Afr.EntriesColumns.RENDERED);
+		
+		return contents;
+	}
+	
+	private static boolean contains(String[] projection, String column) {
+		for (String p : projection) {
+			if (column.equals(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return if any of the columns (or expressions) in the projection need the entry contents table
+	 */
+	private static boolean usesContents(String[] projection) {
+		for (String p : projection) {
+			if (p.indexOf(Afr.EntriesColumns.CONTENT) != -1 || p.indexOf(Afr.EntriesColumns.COMPRESSION) != -1 || 
+					p.indexOf(Afr.EntriesColumns.RENDERED) != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	private Cursor queryCategories(ContentURI uri, URIPatternIds type, String[] projection,
 			String selection, String[] selectionArgs, 
 			String groupBy, String having, String sortOrder) {
 		QueryBuilder qb = new QueryBuilder();
+		qb.setTables(Afr.Categories.SQL.tableName);
 		
-		switch (type) {
-		case CATEGORIES:
-			qb.setTables(Afr.Categories.SQL.tableName);
-			break;
-		case CATEGORY_ID:
-			qb.setTables(Afr.Categories.SQL.tableName);
-			qb.appendWhere(Afr.CategoriesColumns._ID + '=' + uri.getPathLeafId());
-			break;
-		case FEED_CATEGORIES:
-			qb.setTables(Afr.Categories.SQL.tableName + " c, " + Afr.CategoryLinks.SQL.tableName + " cl");
-			qb.appendWhere("cl.feed = " + uri.getPathSegment(1));
-			qb.appendWhere(" AND cl.entry IS NULL");
-			qb.setDistinct(true);
-			qb.setProjectionMap(categoriesColumnMap);
-			break;
-		case FEED_ENTRIES_CATEGORIES:
-			qb.setTables(Afr.Categories.SQL.tableName + " c, " + Afr.CategoryLinks.SQL.tableName + " cl");
-			qb.appendWhere("cl.feed = " + uri.getPathSegment(1));
-			qb.appendWhere(" AND cl.entry IS NOT NULL");
-			qb.setDistinct(true);
-			qb.setProjectionMap(categoriesColumnMap);
-			break;
-		case FEED_ENTRY_CATEGORIES:
-			qb.setTables(Afr.Categories.SQL.tableName + " c, " + Afr.CategoryLinks.SQL.tableName + " cl");
-			qb.appendWhere("cl.feed = " + uri.getPathSegment(1));
-			qb.appendWhere(" AND cl.entry = " + uri.getPathSegment(3));
-			qb.setDistinct(true);
-			qb.setProjectionMap(categoriesColumnMap);
-			break;
-		case ENTRY_CATEGORIES:
-			qb.setTables(Afr.Categories.SQL.tableName + " c, " + Afr.CategoryLinks.SQL.tableName + " cl");
-			qb.appendWhere("cl.entry = " + uri.getPathSegment(1));
-			qb.setDistinct(true);
-			qb.setProjectionMap(categoriesColumnMap);
-			break;
+		ArrayList<String> args = new ArrayList<String>();
+		String where = makeCategoriesWhere(uri, type, args);
+		if (where != null) {
+			qb.appendWhere(where);
 		}
 		
         if (TextUtils.isEmpty(sortOrder)) {
         	sortOrder = Afr.Categories.DEFAULT_SORT_ORDER;
         }
 
-        Cursor c = qb.query(mDb, projection, selection, selectionArgs, groupBy, having, sortOrder);
+        Cursor c = qb.query(mDb, projection, selection, concatArgs(args, selectionArgs), groupBy, having, sortOrder);
         c.setNotificationUri(getContext().getContentResolver(), uri);
         
 		return c;
 	}
 
+	private Cursor queryTombstones(String[] projection, String selection, String[] selectionArgs, 
+			String groupBy, String having, String sortOrder) {
+		QueryBuilder qb = new QueryBuilder();
+		qb.setTables(Afr.Tombstones.SQL.tableName);
+		
+		return qb.query(mDb, projection, selection, selectionArgs, groupBy, having, sortOrder);
+	}
+
 	@Override
 	protected int updateInternal(ContentURI uri, ContentValues values, String selection, String[] selectionArgs) {
 		URIPatternIds type = URIPatternIds.get(URI_MATCHER.match(uri));
@@ -783,6 +1404,15 @@ public class AfrProvider extends DatabaseContentProvider {
 		case FEED_ENTRIES_FILTER_READ:
 		case FEED_ENTRIES_FILTER_UNREAD:
             return updateEntries(uri, type, values, selection, selectionArgs);
+		case ENTRIES_READ_STATE:
+		case ENTRIES_READ_STATE_BEFORE:
+		case ENTRIES_READ_STATE_IDS:
+		case FEED_ENTRIES_READ_STATE:
+		case FEED_ENTRIES_READ_STATE_BEFORE:
+		case CATEGORY_ENTRIES_READ_STATE:
+            return updateReadState(uri, type, values, selection, selectionArgs);
+		case ENTRIES_COMPRESS:
+			return compressContents(uri);
 		case CATEGORIES:
 		case CATEGORY_ID:
 		case FEED_CATEGORIES:
@@ -796,173 +1426,189 @@ public class AfrProvider extends DatabaseContentProvider {
 	}
 	
 	private int updateFeeds(ContentURI uri, URIPatternIds type, ContentValues values, String selection, String[] selectionArgs) {
-		StringBuilder where = new StringBuilder();
+		ArrayList<String> args = new ArrayList<String>();
+		String where = andSelection(makeFeedsWhere(uri, type, args), selection);
 		
-		switch (type) {
-		case FEED_ID:
-			where.append(Afr.FeedsColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_URI:
-        	try {
-    			where.append(Afr.FeedsColumns.URI).append("='").append(URLDecoder.decode(uri.getPathLeaf(), "utf-8")).append('\'');
-    		} catch (UnsupportedEncodingException e) {
-                throw new IllegalArgumentException("Couldn't decode filter URI: " + uri.getPathLeaf(), e);	
-    		}
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case CATEGORY_FEEDS:
-			where.append(Afr.FeedsColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT f.id "); 
-			where.append("FROM feeds f, categories c, category_links cl ");
-			where.append("WHERE f._id = cl.feed AND cl.category.category = c._id AND c._id=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEEDS:
-			break;
+		if (values.containsKey(Afr.FeedsColumns.URI)) {
+			values.put(Afr.FeedsColumns.URI_HASH, Utils.hashUri(values.getAsString(Afr.FeedsColumns.URI)));
 		}
 		
-		return mDb.update(Afr.Feeds.SQL.tableName, values, where.toString(), selectionArgs);
+		return mDb.update(Afr.Feeds.SQL.tableName, values, where, concatArgs(args, selectionArgs));
 	}
 	
 	private int updateEntries(ContentURI uri, URIPatternIds type, ContentValues values, String selection, String[] selectionArgs) {
-		StringBuilder where = new StringBuilder();
+		ArrayList<String> args = new ArrayList<String>();
+		String where = andSelection(makeEntriesWhere(uri, type, args), selection);
+		String[] whereArgs = concatArgs(args, selectionArgs);
 		
-		switch (type) {
-		case ENTRY_ID:
-			where.append(Afr.EntriesColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRY_ID:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case ENTRY_URI:
-        	try {
-    			where.append(Afr.EntriesColumns.URI).append("='").append(URLDecoder.decode(uri.getPathLeaf(), "utf-8")).append('\'');
-    		} catch (UnsupportedEncodingException e) {
-                throw new IllegalArgumentException("Couldn't decode filter URI: " + uri.getPathLeaf(), e);	
-    		}
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case CATEGORY_ENTRIES:
-			where.append(Afr.EntriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT e.id "); 
-			where.append("FROM entries e, categories c, category_links cl ");
-			where.append("WHERE e._id = cl.entry AND cl.category = c._id AND c._id=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES_FILTER_AUTHOR:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns.AUTHOR).append(" LIKE '").append(uri.getPathLeaf()).append('\'');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
-			}
-			break;
-		case FEED_ENTRIES_FILTER_CATEGORY:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT e.id "); 
-			where.append("FROM entries e, categories c, category_links cl ");
-			where.append("WHERE e._id = cl.entry AND cl.category = c._id AND c._id=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+		if (values.containsKey(Afr.EntriesColumns.URI)) {
+			values.put(Afr.EntriesColumns.URI_HASH, Utils.hashUri(values.getAsString(Afr.EntriesColumns.URI)));
+		}
+		// the search index has to follow any change to the text of the entries (or the feed they're in)
+		boolean reindex = values.containsKey(Afr.EntriesColumns.TITLE) || values.containsKey(Afr.EntriesColumns.AUTHOR) ||
+			values.containsKey(Afr.EntriesColumns.CONTENT) || values.containsKey(Afr.EntriesColumns.FEED);
+		// and anyone showing the entries has to hear of any change to what they show
+		boolean contentsChanged = values.containsKey(Afr.EntriesColumns.TITLE) || values.containsKey(Afr.EntriesColumns.CONTENT) ||
+			values.containsKey(Afr.EntriesColumns.RENDERED) || values.containsKey(Afr.EntriesColumns.TYPE) || 
+			values.containsKey(Afr.EntriesColumns.LINK);
+		ContentValues contents = null;
+		if (values.containsKey(Afr.EntriesColumns.CONTENT) || values.containsKey(Afr.EntriesColumns.RENDERED)) {
+			contents = takeContents(values);
+		}
+		
+		int count = 0;
+		mDb.beginTransaction();
+		try {
+			// the entries are picked out before the update, in case it changes what the WHERE clause matches
+			String reindexWhere = reindex ? makeIdsWhere(where, whereArgs) : null;
+			if (values.size() > 0) {
+				count = mDb.update(Afr.Entries.SQL.tableName, values, where, whereArgs);
 			}
-			break;
-		case FEED_ENTRIES_FILTER_READ:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns.READ).append("=1");
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+			if (contents != null) {
+				StringBuilder contentsWhere = new StringBuilder("entry IN (SELECT _id FROM ").append(Afr.Entries.SQL.tableName);
+				if (!TextUtils.isEmpty(where)) {
+					contentsWhere.append(" WHERE ").append(where);
+				}
+				contentsWhere.append(')');
+				count = Math.max(count, mDb.update(Afr.Entries.SQL.contentsTableName, contents, contentsWhere.toString(), whereArgs));
 			}
-			break;
-		case FEED_ENTRIES_FILTER_UNREAD:
-			where.append(Afr.EntriesColumns.FEED).append('=').append(uri.getPathSegment(1));
-			where.append(" AND ").append(Afr.EntriesColumns.READ).append("=0");
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+			if (count > 0 && reindex) {
+				indexEntries(reindexWhere, null);
 			}
-			break;
-		case ENTRIES:
-			break;
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		if (count > 0 && values.containsKey(Afr.EntriesColumns.READ)) {
+			// the feeds' unread counts have changed too
+			getContext().getContentResolver().notifyChange(Afr.Feeds.CONTENT_URI, null);
+		}
+		if (count > 0 && contentsChanged) {
+			getContext().getContentResolver().notifyChange(Afr.Entries.CONTENTS_CHANGED_URI, null);
 		}
 		
-		return mDb.update(Afr.Entries.SQL.tableName, values, where.toString(), selectionArgs);
+		return count;
 	}
 
-	private int updateCategories(ContentURI uri, URIPatternIds type, ContentValues values, String selection, String[] selectionArgs) {
-		StringBuilder where = new StringBuilder();
+	/**
+	 * Compresses the content of up to as many entries as the last segment of the URI says, of those 
+	 * stored before content was compressed. Only the contents are rewritten: the content itself doesn't 
+	 * change, so the entries aren't reindexed and nobody is notified.
+	 * @return the number of entries compressed; once this is 0, they're all done
+	 */
+	private int compressContents(ContentURI uri) {
+		String[] args = { Integer.toString(ContentCompressor.NONE), Long.toString(uri.getPathLeafId()) };
 		
-		switch (type) {
-		case CATEGORY_ID:
-			where.append(Afr.CategoriesColumns._ID).append('=').append(uri.getPathLeafId());
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+		// the chunk is read (and compressed) in full before any of it is written, so the rows aren't 
+		// updated under the cursor reading them
+		ArrayList<Long> ids = new ArrayList<Long>();
+		ArrayList<byte[]> contents = new ArrayList<byte[]>();
+		Cursor c = mDb.query("SELECT entry, content FROM " + Afr.Entries.SQL.contentsTableName + 
+				" WHERE compression = ? LIMIT ?", args);
+		try {
+			while (c.next()) {
+				String content = ContentCompressor.decompress(c.getBlob(1), ContentCompressor.NONE);
+				ids.add(c.getLong(0));
+				contents.add(ContentCompressor.compress(content));
 			}
-			break;
-		case FEED_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.entry IS NULL AND cl.category = c._id AND cl.feed=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+		} finally {
+			c.close();
+		}
+		
+		mDb.beginTransaction();
+		try {
+			SQLiteStatement compress = getStatement(COMPRESS_CONTENTS);
+			synchronized (compress) {
+				for (int i = 0; i < ids.size(); i++) {
+					compress.bindBlob(1, contents.get(i));
+					compress.bindLong(2, ContentCompressor.DEFLATE);
+					compress.bindLong(3, ids.get(i));
+					compress.bindLong(4, ContentCompressor.NONE);
+					compress.execute();
+				}
 			}
-			break;
-		case FEED_ENTRIES_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.entry IS NOT NULL AND cl.category = c._id AND cl.feed=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		return ids.size();
+	}
+	
+	/**
+	 * Marks a set of entries read or unread with a single UPDATE. Only the entries whose read state 
+	 * actually changes are touched, and each feed that had entries change is notified once.
+	 */
+	private int updateReadState(ContentURI uri, URIPatternIds type, ContentValues values, String selection, String[] selectionArgs) {
+		Object value = values.get(Afr.EntriesColumns.READ);
+		if (values.size() != 1 || value == null) {
+			throw new IllegalArgumentException("Only the read state can be set through " + uri);
+		}
+		boolean read = value instanceof Boolean ? ((Boolean) value).booleanValue() : 
+			!value.toString().equals("0") && !value.toString().equalsIgnoreCase("false");
+		
+		ArrayList<String> args = new ArrayList<String>();
+		String where = andSelection(makeEntriesWhere(uri, type, args), selection);
+		where = andSelection(Afr.EntriesColumns.READ + (read ? "=0" : "!=0"), where);
+		String[] whereArgs = concatArgs(args, selectionArgs);
+		
+		ContentValues readState = new ContentValues();
+		readState.put(Afr.EntriesColumns.READ, read);
+		
+		ArrayList<Long> feeds = new ArrayList<Long>();
+		int count;
+		mDb.beginTransaction();
+		try {
+			Cursor c = mDb.query("SELECT DISTINCT feed FROM entries WHERE " + where, whereArgs);
+			while (c.next()) {
+				feeds.add(c.getLong(0));
 			}
-			break;
-		case FEED_ENTRY_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.category = c._id AND cl.feed=").append(uri.getPathSegment(1));
-			where.append(" AND cl.entry=").append(uri.getPathSegment(3)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+			c.close();
+			
+			count = mDb.update(Afr.Entries.SQL.tableName, readState, where, whereArgs);
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		
+		if (count > 0) {
+			getContext().getContentResolver().notifyChange(Afr.Entries.CONTENT_URI, null);
+			for (Long feed : feeds) {
+				getContext().getContentResolver().notifyChange(Afr.Feeds.CONTENT_URI.addId(feed), null);
 			}
-			break;
-		case ENTRY_CATEGORIES:
-			where.append(Afr.CategoriesColumns._ID).append(" IN (");
-			where.append("SELECT DISTINCT c.id "); 
-			where.append("FROM categories c, category_links cl ");
-			where.append("WHERE cl.category = c._id AND cl.entry=").append(uri.getPathSegment(1)).append(')');
-			if (!TextUtils.isEmpty(selection)) {
-				where.append(" AND (").append(selection).append(')');
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @return a WHERE clause matching the ids of the entries <code>where</code> matches right now
+	 */
+	private String makeIdsWhere(String where, String[] whereArgs) {
+		StringBuilder query = new StringBuilder("SELECT _id FROM ").append(Afr.Entries.SQL.tableName);
+		if (!TextUtils.isEmpty(where)) {
+			query.append(" WHERE ").append(where);
+		}
+		
+		StringBuilder ids = new StringBuilder("_id IN (");
+		Cursor c = mDb.query(query.toString(), whereArgs);
+		while (c.next()) {
+			if (!c.isFirst()) {
+				ids.append(", ");
 			}
-			break;
-		case CATEGORIES:
-			break;
+			ids.append(c.getLong(0));
 		}
+		c.close();
+		
+		return ids.append(')').toString();
+	}
+	
+	private int updateCategories(ContentURI uri, URIPatternIds type, ContentValues values, String selection, String[] selectionArgs) {
+		ArrayList<String> args = new ArrayList<String>();
+		String where = andSelection(makeCategoriesWhere(uri, type, args), selection);
 		
-		return mDb.update(Afr.Categories.SQL.tableName, values, where.toString(), selectionArgs);
+		return mDb.update(Afr.Categories.SQL.tableName, values, where, concatArgs(args, selectionArgs));
 	}
 	
 	@Override
@@ -981,9 +1627,21 @@ public class AfrProvider extends DatabaseContentProvider {
 		case FEED_ENTRIES_FILTER_CATEGORY:
 		case FEED_ENTRIES_FILTER_READ:
 		case FEED_ENTRIES_FILTER_UNREAD:
+		case FEED_ENTRIES_SEARCH:
+		case ENTRIES_SEARCH:
+		case FEED_ENTRIES_READ_STATE:
+		case FEED_ENTRIES_READ_STATE_BEFORE:
+		case ENTRIES_READ_STATE:
+		case ENTRIES_READ_STATE_BEFORE:
+		case ENTRIES_READ_STATE_IDS:
+		case CATEGORY_ENTRIES_READ_STATE:
+		case ENTRIES_COMPRESS:
             return Afr.Entries.CONTENT_TYPE;
 		case FEED_ENTRIES_AUTHORS:
 			return Afr.Authors.CONTENT_TYPE;
+		case FEED_ENTRIES_SECTIONS:
+		case FEED_ENTRIES_SECTION_RANGES:
+			return Afr.Sections.CONTENT_TYPE;
 		case ENTRY_ID:
 		case ENTRY_URI:
 		case FEED_ENTRY_ID:
@@ -996,6 +1654,8 @@ public class AfrProvider extends DatabaseContentProvider {
             return Afr.Categories.CONTENT_TYPE;
 		case CATEGORY_ID:
             return Afr.Categories.CONTENT_ITEM_TYPE;
+		case TOMBSTONES:
+            return Afr.Tombstones.CONTENT_TYPE;
 		default:
             throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses entry content for storage. Each entry is compressed on its own, so deflate is given a preset
+ * dictionary of the markup that turns up in nearly every entry, which it can refer back to from the start.
+ */
+final class ContentCompressor {
+	/**
+	 * The content is stored as is (entries stored before content was compressed)
+	 */
+	static final int NONE = 0;
+	/**
+	 * The content is deflated, using {@link #DICTIONARY} as the preset dictionary
+	 */
+	static final int DEFLATE = 1;
+
+	// deflate looks for matches from the end of the dictionary back, so the most common strings go last
+	private static final byte[] DICTIONARY = getBytes(
+		"<table><tr><td></td></tr></table><h1></h1><h2></h2><h3></h3><ol></ol><blockquote></blockquote>" +
+		"<pre><code></code></pre><em></em><strong></strong><b></b><i></i><span style=\"\"></span>" +
+		"<div class=\"\"></div><img src=\"http://\" alt=\"\" width=\"\" height=\"\" border=\"0\" />" +
+		"<ul><li></li></ul>&quot;&amp;&nbsp;&#8217;&#8220;&#8221; target=\"_blank\" rel=\"nofollow\"" +
+		"<br /><br/><p></p><p><a href=\"http://www.\"></a> the and of to a in that is for with on this ");
+
+	private ContentCompressor() {
+	}
+
+	/**
+	 * @return <code>content</code>, deflated
+	 */
+	static byte[] compress(String content) {
+		byte[] input = getBytes(content);
+		byte[] buffer = new byte[4096];
+		ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(input);
+			deflater.finish();
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param data the stored content
+	 * @param compression how the content was stored ({@link #NONE} or {@link #DEFLATE})
+	 * @return the original content
+	 */
+	static String decompress(byte[] data, int compression) {
+		if (data == null) {
+			return null;
+		}
+
+		switch (compression) {
+		case NONE:
+			return getString(data);
+		case DEFLATE:
+			byte[] buffer = new byte[4096];
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data);
+				while (!inflater.finished()) {
+					int length = inflater.inflate(buffer);
+					if (length == 0 && !inflater.finished()) {
+						if (inflater.needsDictionary()) {
+							inflater.setDictionary(DICTIONARY);
+						} else if (inflater.needsInput()) {
+							throw new IllegalStateException("Compressed entry content is truncated");
+						}
+					}
+					out.write(buffer, 0, length);
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalStateException("Compressed entry content is corrupt", e);
+			} finally {
+				inflater.end();
+			}
+
+			return getString(out.toByteArray());
+		default:
+			throw new IllegalArgumentException("Unknown entry content compression: " + compression);
+		}
+	}
+
+	static byte[] getBytes(String s) {
+		try {
+			return s.getBytes("utf-8");
+		} catch (UnsupportedEncodingException e) {
+			// should never happen, every VM has UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String getString(byte[] b) {
+		try {
+			return new String(b, "utf-8");
+		} catch (UnsupportedEncodingException e) {
+			// should never happen, every VM has UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+}
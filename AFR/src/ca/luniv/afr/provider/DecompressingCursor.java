@@ -0,0 +1,105 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.provider;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * Hands out an entries query's content and rendered entry decompressed, a row at a time as they're read, 
+ * so the query stays as lazy as any other. Every other column is passed straight through from the query.
+ */
+final class DecompressingCursor extends CursorWrapper {
+	private final int contentColumn;
+	private final int compressionColumn;
+	private final int renderedColumn;
+	// the compression column when it was only added to the query to decompress the content (hidden then)
+	private final boolean hideCompression;
+	
+	// the column last read, so reading it again doesn't decompress it again
+	private int decompressedPosition = -1;
+	private int decompressedColumn = -1;
+	private String decompressed;
+	
+	/**
+	 * @param addedCompression if the compression column is the last one, added to the query for this
+	 */
+	DecompressingCursor(Cursor c, boolean addedCompression) {
+		super(c);
+		this.contentColumn = c.getColumnIndex(Afr.EntriesColumns.CONTENT);
+		this.compressionColumn = c.getColumnIndex(Afr.EntriesColumns.COMPRESSION);
+		this.renderedColumn = c.getColumnIndex(Afr.EntriesColumns.RENDERED);
+		this.hideCompression = addedCompression;
+	}
+	
+	private boolean isCompressed(int column) {
+		return column != -1 && (column == contentColumn || column == renderedColumn);
+	}
+	
+	@Override
+	public String getString(int column) {
+		if (!isCompressed(column)) {
+			return super.getString(column);
+		}
+		
+		int position = position();
+		if (position != decompressedPosition || column != decompressedColumn) {
+			// the rendered entry is always deflated, whatever the content's compression
+			int compression = column == renderedColumn ? ContentCompressor.DEFLATE : super.getInt(compressionColumn);
+			decompressed = ContentCompressor.decompress(super.getBlob(column), compression);
+			decompressedPosition = position;
+			decompressedColumn = column;
+		}
+		return decompressed;
+	}
+	
+	@Override
+	public byte[] getBlob(int column) {
+		if (!isCompressed(column)) {
+			return super.getBlob(column);
+		}
+		
+		String content = getString(column);
+		return content == null ? null : ContentCompressor.getBytes(content);
+	}
+	
+	@Override
+	public String[] getColumnNames() {
+		String[] columns = super.getColumnNames();
+		if (hideCompression) {
+			String[] trimmed = new String[columns.length - 1];
+			System.arraycopy(columns, 0, trimmed, 0, trimmed.length);
+			columns = trimmed;
+		}
+		return columns;
+	}
+	
+	@Override
+	public int getColumnIndex(String columnName) {
+		if (hideCompression && Afr.EntriesColumns.COMPRESSION.equals(columnName)) {
+			return -1;
+		}
+		return super.getColumnIndex(columnName);
+	}
+	
+	@Override
+	public boolean requery() {
+		decompressedPosition = -1;
+		decompressedColumn = -1;
+		decompressed = null;
+		return super.requery();
+	}
+}
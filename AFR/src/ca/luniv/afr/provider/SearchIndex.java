@@ -0,0 +1,183 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.provider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Breaks entries and search queries up into the terms kept in the entry terms table. A term is a run of
+ * letters and digits, lower cased; each entry has one row per term, weighted by where and how often the
+ * term turns up in it.
+ */
+final class SearchIndex {
+	// a term in the title counts for more than one in the author, which counts for more than one in the content
+	static final int TITLE_WEIGHT = 8;
+	static final int AUTHOR_WEIGHT = 4;
+	static final int CONTENT_WEIGHT = 1;
+	// so a long entry that keeps repeating a term doesn't drown out everything else
+	static final int MAX_WEIGHT = 32;
+
+	static final int MIN_TERM_LENGTH = 2;
+	// anything longer is nearly always a URL or an encoded blob, so it's cut short
+	static final int MAX_TERM_LENGTH = 24;
+
+	private static final HashSet<String> STOP_WORDS = new HashSet<String>();
+	static {
+		String[] words = {
+			"an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "has", "have", "he", "her",
+			"his", "if", "in", "is", "it", "its", "not", "of", "on", "or", "she", "so", "that", "the",
+			"their", "there", "they", "this", "to", "was", "we", "were", "which", "will", "with", "you"
+		};
+		for (String word : words) {
+			STOP_WORDS.add(word);
+		}
+	}
+
+	private SearchIndex() {
+	}
+
+	/**
+	 * @param type the MIME type of the content; HTML content has its markup stripped first
+	 * @return the entry's terms, with their weights
+	 */
+	static HashMap<String, Integer> terms(String title, String author, String content, String type) {
+		HashMap<String, Integer> terms = new HashMap<String, Integer>();
+		addTerms(terms, title, TITLE_WEIGHT);
+		addTerms(terms, author, AUTHOR_WEIGHT);
+		if (type != null && type.indexOf("html") != -1) {
+			content = toPlainText(content);
+		}
+		addTerms(terms, content, CONTENT_WEIGHT);
+
+		return terms;
+	}
+
+	/**
+	 * @return the distinct terms in a search query, in the order they were given. This is empty if none
+	 * of the words in the query are indexed.
+	 */
+	static List<String> queryTerms(String query) {
+		HashSet<String> seen = new HashSet<String>();
+		ArrayList<String> terms = new ArrayList<String>();
+		for (String term : tokenize(query)) {
+			if (seen.add(term)) {
+				terms.add(term);
+			}
+		}
+		return terms;
+	}
+
+	private static void addTerms(HashMap<String, Integer> terms, String text, int weight) {
+		for (String term : tokenize(text)) {
+			Integer current = terms.get(term);
+			int total = current == null ? weight : current.intValue() + weight;
+			terms.put(term, Math.min(total, MAX_WEIGHT));
+		}
+	}
+
+	private static List<String> tokenize(String text) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		if (text == null) {
+			return tokens;
+		}
+
+		StringBuilder token = new StringBuilder(MAX_TERM_LENGTH);
+		int length = text.length();
+		for (int i = 0; i <= length; i++) {
+			char c = i < length ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				if (token.length() < MAX_TERM_LENGTH) {
+					token.append(Character.toLowerCase(c));
+				}
+			} else if (token.length() > 0) {
+				if (token.length() >= MIN_TERM_LENGTH) {
+					String term = token.toString();
+					if (!STOP_WORDS.contains(term)) {
+						tokens.add(term);
+					}
+				}
+				token.setLength(0);
+			}
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * Strips the markup out of HTML content, leaving the text. Tags become spaces, so words on either
+	 * side of them stay apart, and the common entities are turned back into their characters.
+	 */
+	static String toPlainText(String html) {
+		if (html == null) {
+			return null;
+		}
+
+		StringBuilder text = new StringBuilder(html.length());
+		int length = html.length();
+		for (int i = 0; i < length; i++) {
+			char c = html.charAt(i);
+			if (c == '<') {
+				int end = html.indexOf('>', i);
+				if (end == -1) {
+					break;
+				}
+				text.append(' ');
+				i = end;
+			} else if (c == '&') {
+				int end = html.indexOf(';', i);
+				if (end == -1 || end - i > 8) {
+					text.append(c);
+					continue;
+				}
+				text.append(decodeEntity(html.substring(i + 1, end)));
+				i = end;
+			} else {
+				text.append(c);
+			}
+		}
+
+		return text.toString();
+	}
+
+	private static char decodeEntity(String entity) {
+		if (entity.length() > 1 && entity.charAt(0) == '#') {
+			try {
+				if (entity.charAt(1) == 'x' || entity.charAt(1) == 'X') {
+					return (char) Integer.parseInt(entity.substring(2), 16);
+				}
+				return (char) Integer.parseInt(entity.substring(1));
+			} catch (NumberFormatException e) {
+				return ' ';
+			}
+		} else if (entity.equals("amp")) {
+			return '&';
+		} else if (entity.equals("lt")) {
+			return '<';
+		} else if (entity.equals("gt")) {
+			return '>';
+		} else if (entity.equals("quot")) {
+			return '"';
+		} else if (entity.equals("apos")) {
+			return '\'';
+		}
+
+		// anything else (&nbsp; and friends) only separates words as far as we're concerned
+		return ' ';
+	}
+}
@@ -19,7 +19,12 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -28,9 +33,13 @@ import android.net.ContentURI;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
+import ca.luniv.afr.Utils;
 import ca.luniv.afr.provider.Afr;
 
 public class Entry extends DAO implements Afr.EntriesColumns, Parcelable {
+	// the most URIs to look up in a single query (SQLite limits the number of bound parameters)
+	private static final int MAX_LOOKUP_BATCH = 100;
+	
 	protected long feed = -1;
 	protected String uri;
 	protected String title;
@@ -106,6 +115,89 @@ public class Entry extends DAO implements Afr.EntriesColumns, Parcelable {
 		return false;
 	}
 	
+	/**
+	 * Finds out which of the given entry URIs are already stored, asking for up to 
+	 * {@link #MAX_LOOKUP_BATCH} URIs at a time rather than one query per entry.
+	 * @return the URIs that are already stored
+	 */
+	public static Set<String> findExistingUris(ContentResolver contentResolver, Collection<String> uris) {
+		HashSet<String> existing = new HashSet<String>();
+		String[] projection = new String[] { URI };
+		
+		Iterator<String> it = uris.iterator();
+		while (it.hasNext()) {
+			StringBuilder where = new StringBuilder(URI_HASH).append(" IN (");
+			HashSet<String> batch = new HashSet<String>();
+			HashSet<Long> hashes = new HashSet<Long>();
+			while (it.hasNext() && batch.size() < MAX_LOOKUP_BATCH) {
+				String uri = it.next();
+				batch.add(uri);
+				if (hashes.add(Utils.hashUri(uri))) {
+					where.append(hashes.size() == 1 ? "?" : ", ?");
+				}
+			}
+			where.append(')');
+			
+			String[] args = new String[hashes.size()];
+			int i = 0;
+			for (Long hash : hashes) {
+				args[i++] = hash.toString();
+			}
+			
+			// the hashes narrow it down, but a stored entry only counts if its URI really is one of ours
+			Cursor c = contentResolver.query(Afr.Entries.CONTENT_URI, projection, where.toString(), args, null);
+			while (c.next()) {
+				String uri = c.getString(0);
+				if (batch.contains(uri)) {
+					existing.add(uri);
+				}
+			}
+			c.close();
+		}
+		
+		return existing;
+	}
+	
+	/**
+	 * Finds out which of the given entry URIs belong to entries that have been deleted (and so shouldn't be 
+	 * stored again), going by the tombstones the deleted entries left behind.
+	 * @return the URIs of deleted entries
+	 */
+	public static Set<String> findDeletedUris(ContentResolver contentResolver, Collection<String> uris) {
+		HashSet<String> deleted = new HashSet<String>();
+		String[] projection = new String[] { Afr.Tombstones.URI_HASH };
+		
+		Iterator<String> it = uris.iterator();
+		while (it.hasNext()) {
+			StringBuilder where = new StringBuilder(Afr.Tombstones.URI_HASH).append(" IN (");
+			HashMap<Long, String> hashes = new HashMap<Long, String>();
+			while (it.hasNext() && hashes.size() < MAX_LOOKUP_BATCH) {
+				String uri = it.next();
+				if (hashes.put(Utils.hashUri(uri), uri) == null) {
+					where.append(hashes.size() == 1 ? "?" : ", ?");
+				}
+			}
+			where.append(')');
+			
+			String[] args = new String[hashes.size()];
+			int i = 0;
+			for (Long hash : hashes.keySet()) {
+				args[i++] = hash.toString();
+			}
+			
+			Cursor c = contentResolver.query(Afr.Tombstones.CONTENT_URI, projection, where.toString(), args, null);
+			while (c.next()) {
+				String uri = hashes.get(c.getLong(0));
+				if (uri != null) {
+					deleted.add(uri);
+				}
+			}
+			c.close();
+		}
+		
+		return deleted;
+	}
+	
 	@Override
 	protected void doLoad(Cursor cursor, boolean subset) {
 		try {
@@ -36,6 +36,9 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 	protected Date lastChecked;
 	protected String lastModified;
 	protected String etag;
+	protected long updateInterval;
+	protected Date nextCheck;
+	protected boolean complete;
 	
 	public static final Parcelable.Creator<Feed> CREATOR = new Parcelable.Creator<Feed>() {
 		public Feed createFromParcel(Parcel source) {
@@ -48,6 +51,9 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 				feed.lastChecked = new Date(source.readLong());
 				feed.lastModified = source.readString();
 				feed.etag = source.readString();
+				feed.updateInterval = source.readLong();
+				feed.nextCheck = new Date(source.readLong());
+				feed.complete = source.readInt() != 0;
 			} catch (URISyntaxException e) {
 				// this should never happen
 				Log.e("AFR", "Feed.createFromParcel: error parsing the link or URI from parcel", e);
@@ -77,6 +83,9 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 		parcel.writeLong(lastChecked.getTime());
 		parcel.writeString(lastModified);
 		parcel.writeString(etag);
+		parcel.writeLong(updateInterval);
+		parcel.writeLong(nextCheck != null ? nextCheck.getTime() : 0);
+		parcel.writeInt(complete ? 1 : 0);
 	}
 	
 	@Override
@@ -109,6 +118,15 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 				if (c.getColumnIndex(ETAG) != -1) {
 					etag = c.getString(c.getColumnIndex(ETAG));
 				}
+				if (c.getColumnIndex(UPDATE_INTERVAL) != -1) {
+					updateInterval = c.getLong(c.getColumnIndex(UPDATE_INTERVAL));
+				}
+				if (c.getColumnIndex(NEXT_CHECK) != -1) {
+					nextCheck = new Date(c.getLong(c.getColumnIndex(NEXT_CHECK)));
+				}
+				if (c.getColumnIndex(COMPLETE) != -1) {
+					complete = c.getInt(c.getColumnIndex(COMPLETE)) != 0;
+				}
 			} else {
 				uri = new URI(c.getString(1));
 				name = c.getString(2);
@@ -117,6 +135,9 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 				lastChecked = new Date(c.getLong(5));
 				lastModified = c.getString(6);
 				etag = c.getString(7);
+				updateInterval = c.getLong(8);
+				nextCheck = new Date(c.getLong(9));
+				complete = c.getInt(c.getColumnIndex(COMPLETE)) != 0;
 			}
 		} catch (URISyntaxException e) {
 			// this should never happen, since they are validated before they get into the DB
@@ -137,6 +158,11 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 		values.put(LAST_CHECKED, lastChecked.getTime());
 		values.put(LAST_MODIFIED, lastModified);
 		values.put(ETAG, etag);
+		values.put(UPDATE_INTERVAL, updateInterval);
+		if (nextCheck != null) {
+			values.put(NEXT_CHECK, nextCheck.getTime());
+		}
+		values.put(COMPLETE, complete);
 		
 		return true;
 	}
@@ -196,6 +222,30 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 	public void setEtag(String etag) {
 		this.etag = etag;
 	}
+
+	public long getUpdateInterval() {
+		return updateInterval;
+	}
+
+	public void setUpdateInterval(long updateInterval) {
+		this.updateInterval = updateInterval;
+	}
+
+	public Date getNextCheck() {
+		return nextCheck;
+	}
+
+	public void setNextCheck(Date nextCheck) {
+		this.nextCheck = nextCheck;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
 	
 	protected StringBuilder getStringBuilder() {
 		StringBuilder sb = super.getStringBuilder();
@@ -205,7 +255,10 @@ public class Feed extends DAO implements Afr.FeedsColumns, Parcelable {
 		sb.append("expireAfter=").append(expireAfter).append(", ");
 		sb.append("lastChecked=").append(lastChecked).append(", ");
 		sb.append("lastModified=").append(lastModified).append(", ");
-		sb.append("etag=").append(etag);
+		sb.append("etag=").append(etag).append(", ");
+		sb.append("updateInterval=").append(updateInterval).append(", ");
+		sb.append("nextCheck=").append(nextCheck).append(", ");
+		sb.append("complete=").append(complete);
 		return sb;
 	}
 }
@@ -0,0 +1,495 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Turns an entry into the page the entry viewer shows. The content is cleaned up on the way: scripts,
+ * embedded objects, event handlers, inline styles and tracking images are taken out, and relative links
+ * are resolved against the entry's link. This is done once, as entries are retrieved, rather than every
+ * time one is opened.
+ */
+public final class ArticleRenderer {
+	private static final String STYLE = "<style type=\"text/css\"> body { background-color: #201c19 !important; " +
+		"color: white !important; } a { color: orange !important; } </style>";
+
+	// these are dropped along with everything in them
+	private static final String[] DROPPED_ELEMENTS = {
+		"script", "style", "iframe", "frame", "frameset", "object", "embed", "applet", "noscript", "form",
+		"svg", "math"
+	};
+	// these are dropped, but what's in them is kept
+	private static final String[] DROPPED_TAGS = {
+		"html", "head", "body", "title", "meta", "link", "base", "input", "button", "select", "textarea"
+	};
+	// attributes holding a link; only the schemes below are let through, everything else is resolved as relative
+	private static final String[] LINK_ATTRIBUTES = {
+		"href", "src", "background", "poster", "cite", "longdesc", "lowsrc", "dynsrc", "action", "data", "xlink:href"
+	};
+	private static final String[] SAFE_SCHEMES = {
+		"http", "https", "mailto"
+	};
+	// images from these are there to count readers, not to be looked at
+	private static final String[] TRACKERS = {
+		"feeds.feedburner.com/~r/", "feeds.feedburner.com/~ff/", "feedsportal.com", "doubleclick.net",
+		"stats.wordpress.com", "pixel.quantserve.com"
+	};
+
+	private ArticleRenderer() {
+	}
+
+	/**
+	 * @param type the MIME type of the content; anything that isn't HTML is treated as plain text
+	 * @param link the entry's link, which relative links in the content are resolved against (may be null)
+	 * @return the complete HTML document for the entry
+	 */
+	public static String render(String title, String content, String type, String link) {
+		StringBuilder page = new StringBuilder(content != null ? content.length() + 512 : 512);
+		page.append("<html><head>");
+		page.append("<title>").append(escape(title)).append("</title>");
+		page.append(STYLE);
+		page.append("</head><body>");
+		if (content != null) {
+			if (type != null && type.indexOf("html") != -1) {
+				sanitize(page, content, toUrl(link));
+			} else {
+				page.append(escape(content).replace("\n", "<br/>"));
+			}
+		}
+		page.append("</body></html>");
+
+		return page.toString();
+	}
+
+	private static URL toUrl(String link) {
+		if (link == null) {
+			return null;
+		}
+
+		try {
+			return new URL(link);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Copies <code>html</code> to <code>out</code> a tag at a time, leaving out what isn't wanted.
+	 */
+	static void sanitize(StringBuilder out, String html, URL base) {
+		int length = html.length();
+		int i = 0;
+		while (i < length) {
+			int start = html.indexOf('<', i);
+			if (start == -1) {
+				out.append(html, i, length);
+				break;
+			}
+			out.append(html, i, start);
+
+			if (html.startsWith("<!--", start)) {
+				int end = html.indexOf("-->", start + 4);
+				i = end == -1 ? length : end + 3;
+				continue;
+			}
+
+			int end = findTagEnd(html, start + 1);
+			if (end == -1) {
+				// an unfinished tag at the end; it wouldn't show anyway
+				break;
+			}
+
+			Tag tag = new Tag(html, start + 1, end);
+			if (tag.name.length() == 0) {
+				if (html.charAt(start + 1) != '!' && html.charAt(start + 1) != '?') {
+					// not a tag after all, just a stray '<'
+					out.append("&lt;");
+					i = start + 1;
+				} else {
+					i = end + 1;
+				}
+				continue;
+			}
+
+			if (contains(DROPPED_ELEMENTS, tag.name)) {
+				i = end + 1;
+				if (!tag.closing && !tag.empty) {
+					i = skipElement(html, tag.name, i);
+				}
+				continue;
+			}
+			if (contains(DROPPED_TAGS, tag.name) || (tag.name.equals("img") && isTracker(tag))) {
+				i = end + 1;
+				continue;
+			}
+
+			tag.write(out, base);
+			i = end + 1;
+		}
+	}
+
+	/**
+	 * @return the index of the '>' closing the tag starting at <code>start</code> (skipping over quoted
+	 * attribute values), or -1 if it's never closed
+	 */
+	private static int findTagEnd(String html, int start) {
+		char quote = 0;
+		for (int i = start; i < html.length(); i++) {
+			char c = html.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index just past the end tag for <code>name</code>, or the end of the HTML if there isn't one
+	 */
+	private static int skipElement(String html, String name, int from) {
+		// matched in place, so the rest of the document is never copied to find the tag
+		int close = html.indexOf("</", from);
+		while (close != -1 && !html.regionMatches(true, close + 2, name, 0, name.length())) {
+			close = html.indexOf("</", close + 2);
+		}
+		if (close == -1) {
+			return html.length();
+		}
+		int end = html.indexOf('>', close);
+		return end == -1 ? html.length() : end + 1;
+	}
+
+	/**
+	 * @return the link as the browser would read it: character references decoded, and the control characters 
+	 * and whitespace it ignores taken out
+	 */
+	static String decodeLink(String value) {
+		StringBuilder sb = new StringBuilder(value.length());
+		int i = 0;
+		while (i < value.length()) {
+			char c = value.charAt(i);
+			if (c == '&') {
+				int end = decodeReference(value, i, sb);
+				if (end != -1) {
+					i = end;
+					continue;
+				}
+			}
+			sb.append(c);
+			i++;
+		}
+		// after decoding, since a reference can stand for one of these as well
+		for (int j = sb.length() - 1; j >= 0; j--) {
+			char c = sb.charAt(j);
+			if (c <= ' ' || c == '\u007f') {
+				sb.deleteCharAt(j);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes the character reference at <code>start</code> (which may be missing its ';', as browsers allow)
+	 * into <code>out</code>.
+	 * @return the index just past the reference, or -1 if there isn't one there
+	 */
+	private static int decodeReference(String value, int start, StringBuilder out) {
+		int i = start + 1;
+		if (i < value.length() && value.charAt(i) == '#') {
+			i++;
+			int radix = 10;
+			if (i < value.length() && (value.charAt(i) == 'x' || value.charAt(i) == 'X')) {
+				radix = 16;
+				i++;
+			}
+			int digitsStart = i;
+			int code = 0;
+			while (i < value.length() && Character.digit(value.charAt(i), radix) != -1) {
+				// anything too big isn't a character; it's only kept from overflowing
+				code = Math.min(code * radix + Character.digit(value.charAt(i), radix), 0x110000);
+				i++;
+			}
+			if (i == digitsStart) {
+				return -1;
+			}
+			if (code < 0x110000) {
+				out.appendCodePoint(code);
+			}
+		} else {
+			int nameStart = i;
+			while (i < value.length() && Character.isLetter(value.charAt(i))) {
+				i++;
+			}
+			String name = value.substring(nameStart, i).toLowerCase();
+			char c;
+			if (name.equals("colon")) {
+				c = ':';
+			} else if (name.equals("amp")) {
+				c = '&';
+			} else if (name.equals("tab") || name.equals("newline") || name.equals("nbsp")) {
+				c = ' ';
+			} else if (name.equals("sol")) {
+				c = '/';
+			} else if (name.equals("quot")) {
+				c = '"';
+			} else if (name.equals("apos")) {
+				c = '\'';
+			} else if (name.equals("lt")) {
+				c = '<';
+			} else if (name.equals("gt")) {
+				c = '>';
+			} else {
+				return -1;
+			}
+			out.append(c);
+		}
+		if (i < value.length() && value.charAt(i) == ';') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return if the (decoded) link is relative, or absolute with one of the {@link #SAFE_SCHEMES}
+	 */
+	static boolean isSafeLink(String link) {
+		for (int i = 0; i < link.length(); i++) {
+			char c = link.charAt(i);
+			if (c == ':') {
+				String scheme = link.substring(0, i);
+				for (String safe : SAFE_SCHEMES) {
+					if (safe.equalsIgnoreCase(scheme)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (c == '/' || c == '?' || c == '#') {
+				// no scheme, so it's relative
+				return true;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isTracker(Tag img) {
+		// a 1x1 image is only ever a web bug
+		String width = img.get("width");
+		String height = img.get("height");
+		if (width != null && height != null && width.trim().length() == 1 && height.trim().length() == 1 &&
+				width.trim().charAt(0) <= '1' && height.trim().charAt(0) <= '1') {
+			return true;
+		}
+
+		String src = img.get("src");
+		if (src != null) {
+			for (String tracker : TRACKERS) {
+				if (src.indexOf(tracker) != -1) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(String[] names, String name) {
+		for (String n : names) {
+			if (n.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String escape(String text) {
+		if (text == null) {
+			return "";
+		}
+
+		StringBuilder sb = new StringBuilder(text.length() + 16);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A start or end tag, broken up into its name and attributes.
+	 */
+	private static class Tag {
+		String name;
+		boolean closing;
+		boolean empty;
+		// attribute names and values, one after the other (values are as they were in the HTML, and null if missing)
+		String[] attributes = new String[16];
+		int count;
+
+		Tag(String html, int start, int end) {
+			int i = start;
+			if (i < end && html.charAt(i) == '/') {
+				closing = true;
+				i++;
+			}
+			int nameStart = i;
+			while (i < end && Character.isLetterOrDigit(html.charAt(i))) {
+				i++;
+			}
+			name = html.substring(nameStart, i).toLowerCase();
+			empty = end > start && html.charAt(end - 1) == '/';
+
+			while (i < end) {
+				char c = html.charAt(i);
+				if (Character.isWhitespace(c) || c == '/') {
+					i++;
+					continue;
+				}
+
+				int attrStart = i;
+				while (i < end && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '=' && html.charAt(i) != '/') {
+					i++;
+				}
+				String attr = html.substring(attrStart, i).toLowerCase();
+				while (i < end && Character.isWhitespace(html.charAt(i))) {
+					i++;
+				}
+
+				String value = null;
+				if (i < end && html.charAt(i) == '=') {
+					i++;
+					while (i < end && Character.isWhitespace(html.charAt(i))) {
+						i++;
+					}
+					if (i < end && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+						char quote = html.charAt(i++);
+						int valueStart = i;
+						while (i < end && html.charAt(i) != quote) {
+							i++;
+						}
+						value = html.substring(valueStart, i);
+						i++;
+					} else {
+						int valueStart = i;
+						while (i < end && !Character.isWhitespace(html.charAt(i))) {
+							i++;
+						}
+						value = html.substring(valueStart, i);
+					}
+				}
+				add(attr, value);
+			}
+		}
+
+		private void add(String attr, String value) {
+			if (attr.length() == 0) {
+				return;
+			}
+			if (count + 2 > attributes.length) {
+				String[] grown = new String[attributes.length * 2];
+				System.arraycopy(attributes, 0, grown, 0, count);
+				attributes = grown;
+			}
+			attributes[count++] = attr;
+			attributes[count++] = value;
+		}
+
+		String get(String attr) {
+			for (int i = 0; i < count; i += 2) {
+				if (attributes[i].equals(attr)) {
+					return attributes[i + 1];
+				}
+			}
+			return null;
+		}
+
+		void write(StringBuilder out, URL base) {
+			if (closing) {
+				out.append("</").append(name).append('>');
+				return;
+			}
+
+			out.append('<').append(name);
+			for (int i = 0; i < count; i += 2) {
+				String attr = attributes[i];
+				String value = attributes[i + 1];
+
+				// event handlers are scripts too
+				if (attr.startsWith("on")) {
+					continue;
+				}
+				// several links in one attribute; not worth checking each of them
+				if (attr.equals("srcset")) {
+					continue;
+				}
+				// styles can load images (and, in some browsers, run scripts) through url() and expression(), 
+				// which can be hidden behind escapes and comments; the page's own style is all that's needed
+				if (attr.equals("style")) {
+					continue;
+				}
+				boolean link = contains(LINK_ATTRIBUTES, attr);
+				if (value != null && link) {
+					value = decodeLink(value);
+					if (!isSafeLink(value)) {
+						continue;
+					}
+					value = resolve(base, value);
+				}
+
+				out.append(' ').append(attr);
+				if (value != null) {
+					// a decoded link is written back out escaped; anything else is as it was in the HTML
+					out.append("=\"").append(link ? escape(value) : value.replace("\"", "&quot;")).append('"');
+				}
+			}
+			out.append(empty ? " />" : ">");
+		}
+
+		private static String resolve(URL base, String link) {
+			if (base == null || link.length() == 0 || link.startsWith("#")) {
+				return link;
+			}
+
+			try {
+				return new URL(base, link).toString();
+			} catch (MalformedURLException e) {
+				return link;
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.ContentURI;
+import android.util.Log;
+import ca.luniv.afr.provider.Afr;
+
+/**
+ * Compresses the content of the entries that were stored before entry content was compressed. The 
+ * provider does the work, a chunk of entries at a time so the database is never tied up for long.
+ */
+class CompressionPass {
+	// how many entries to compress at a time
+	static final int CHUNK_SIZE = 50;
+	
+	private final ContentResolver contentResolver;
+	
+	private int compressedEntries;
+	
+	CompressionPass(FeedRetrieverService service) {
+		contentResolver = service.getContentResolver();
+	}
+	
+	public void run() {
+		ContentURI uri = Afr.Entries.CONTENT_COMPRESS_URI.addId(CHUNK_SIZE);
+		ContentValues values = new ContentValues();
+		
+		// each chunk takes its entries out of the ones left to do, so this stops once a chunk finds none
+		int compressed;
+		do {
+			compressed = contentResolver.update(uri, values, null, null);
+			compressedEntries += compressed;
+		} while (compressed > 0);
+		
+		Log.i("AFR", "CompressionPass.run(): compressed the content of " + compressedEntries + " entries");
+	}
+	
+	public int getCompressedEntries() {
+		return compressedEntries;
+	}
+}
@@ -18,6 +18,7 @@ package ca.luniv.afr.service;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
@@ -26,40 +27,75 @@ import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.http.HttpStatus;
 
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.Service;
 import android.content.ContentValues;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.os.DeadObjectException;
 import android.os.IBinder;
 import android.util.Log;
+import ca.luniv.afr.Prefs;
 import ca.luniv.afr.R;
 import ca.luniv.afr.provider.Afr;
 import ca.luniv.afr.provider.dao.Entry;
 import ca.luniv.afr.provider.dao.Feed;
-
-import com.sun.syndication.feed.synd.SyndContent;
-import com.sun.syndication.feed.synd.SyndEntry;
-import com.sun.syndication.feed.synd.SyndFeed;
-import com.sun.syndication.feed.synd.SyndPerson;
-import com.sun.syndication.io.SyndFeedInput;
-import com.sun.syndication.io.XmlReader;
+import ca.luniv.afr.service.parser.FallbackFeedParser;
+import ca.luniv.afr.service.parser.FeedHandler;
+import ca.luniv.afr.service.parser.FeedParser;
+import ca.luniv.afr.service.parser.ParsedEntry;
+import ca.luniv.afr.service.parser.ParsedFeed;
+import ca.luniv.afr.service.parser.PullFeedParser;
+import ca.luniv.afr.service.parser.RomeFeedParser;
 
 public class FeedRetrieverService extends Service {
+	// how long (in ms) to wait on a socket before giving up
+	private static final int SOCKET_TIMEOUT = 10000;
+	// how long (in ms) to keep an unused connection open in case another feed on the same host needs it
+	private static final long IDLE_CONNECTION_TIMEOUT = 30000;
+	// how many parsed entries to collect before checking them against the database and saving them
+	private static final int SAVE_BATCH = 50;
+	
 	private BlockingQueue<Feed> queue;
 	private NotificationManager notificationManager;
-	private Thread thread;
+	private Thread[] workers;
+	private Thread scheduler;
+	
+	// all the workers share one client, so connections to the same host can be kept alive between feeds
+	private MultiThreadedHttpConnectionManager connectionManager;
+	private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+	private HttpClient client;
+	
+	// entries are streamed out of the common formats; anything else is left to ROME
+	private final FeedParser feedParser = new FallbackFeedParser(new PullFeedParser(), new RomeFeedParser());
+	
+	// the number of retrievals in progress per host, and the feeds waiting for a busy host to free up
+	private int maxPerHost;
+	private boolean spoolToFile;
+	private int stopAfterKnown;
+	private int activeRetrievals;
+	private final HashMap<String, Integer> activeHosts = new HashMap<String, Integer>();
+	private final HashMap<String, LinkedList<Feed>> deferredFeeds = new HashMap<String, LinkedList<Feed>>();
+	// the ids of the feeds that are queued or being retrieved, so they aren't queued twice
+	private final HashSet<Long> pendingFeeds = new HashSet<Long>();
 	
 	private final IFeedRetrieverService.Stub binder = new IFeedRetrieverService.Stub(){
 		public void retrieveURI(String uri) throws DeadObjectException {
@@ -77,14 +113,7 @@ public class FeedRetrieverService extends Service {
 		}
 		
 		public void retrieveFeed(long id) throws DeadObjectException {
-			Feed feed = new Feed(getContentResolver(), id);
-			if (!feed.load()) {
-				Log.e("AFR", "IFeedRetrieverService.Stub.retrieveFeed(long): failed to load feed with id=" + id);
-				displayErrorNotification(R.string.feed_retriever_err_unspecified_no_details);
-				return;
-			}
-			
-			queue.add(feed);
+			queueFeed(id);
 		}
 		
 		public void retrieveAllFeeds() throws DeadObjectException {
@@ -99,44 +128,111 @@ public class FeedRetrieverService extends Service {
 		}
 	};
 	
-	private final Runnable retriever = new Runnable() {		
+	/**
+	 * A retriever worker. Each worker thread gets its own instance, since the state of the feed 
+	 * being retrieved is kept in the worker between the download, parse and save steps. Entries are 
+	 * saved in batches as the parser hands them over, so only a batch is ever held in memory.
+	 */
+	private class Retriever implements Runnable, FeedHandler {		
 		Feed feed;
+		GetMethod method;
+		InputStream in;
 		File file;
+		boolean retry;
 		String contentType;
-		SyndFeed parsedFeed;
+		String lastModified;
+		String etag;
+		ParsedFeed parsedFeed;
+		final ArrayList<ParsedEntry> pendingEntries = new ArrayList<ParsedEntry>(SAVE_BATCH);
+		ArrayList<Date> dates;
+		int newEntries;
+		boolean saved;
+		// how many entries in a row were already stored, and whether the feed lists its newest entries first
+		int knownRun;
+		boolean newestFirst;
+		Date lastDate;
+		boolean stopReading;
+		// the stored entries can only be taken to mean the rest of the feed is stored too if it was read in full last time
+		boolean trustKnown;
 		
 		public void run() {
 			try {
 				while (true) {
 					feed = queue.take();
 					
-					// show a notification
-					Notification notification = displayStatusNotification(feed);
-					
-					if (!download(notification) || 
-						!parse(notification)) {
-						notificationManager.cancel(R.string.feed_retriever_notification);
+					// don't hammer a single host with all our workers
+					String host = getHost(feed);
+					if (!acquireHost(host, feed)) {
 						continue;
 					}
 					
-					save(notification);
-					notificationManager.cancel(R.string.feed_retriever_notification);
+					try {
+						// show a notification
+						Notification notification = displayStatusNotification(feed);
+						
+						boolean parsed = download(notification, spoolToFile) && parse(notification);
+						if (!parsed && retry) {
+							// the connection dropped while we were parsing straight off of it, so try again through a file
+							Log.i("AFR", "FeedRetrieverService.retriever.run(): retrying feed using a temporary file");
+							parsed = download(notification, true) && parse(notification);
+						}
+						
+						if (!parsed && feed.getId() != -1) {
+							// either it hasn't changed or we couldn't get it; both are reasons to wait longer next time
+							FeedScheduler.reschedule(feed, 0, new ArrayList<Date>());
+							feed.update();
+						}
+					} catch (RuntimeException e) {
+						// a bad feed (or a bug) mustn't take the worker down with it, or the pool shrinks for good
+						Log.e("AFR", "FeedRetrieverService.retriever.run(): failed to retrieve feed " + feed, e);
+						displayErrorNotification(R.string.feed_retriever_err_unspecified, 
+								feed.getName() != null ? feed.getName() : String.valueOf(feed.getUri()));
+						reschedule();
+					} finally {
+						synchronized (pendingFeeds) {
+							pendingFeeds.remove(feed.getId());
+						}
+						if (releaseHost(host)) {
+							notificationManager.cancel(R.string.feed_retriever_notification);
+						}
+					}
 				}
 			} catch (InterruptedException e) {
 				// if we are interrupted, we are going away, so do nothing
 			}
 		}
 		
-		boolean download(Notification notification) {
-			// open a HTTP connection and get the headers
-			System.setProperty("httpclient.useragent", getString(R.string.app_user_agent_string));
-			HttpClient client = new HttpClient();
-			// set a 10 second timeout
-			client.getParams().setParameter("http.socket.timeout", new Integer(10000));
-			GetMethod method = new GetMethod(feed.getUri().toString());
+		/**
+		 * Puts the feed off until its next check, after a retrieval went wrong part way.
+		 */
+		void reschedule() {
+			if (feed.getId() == -1) {
+				return;
+			}
+			
+			try {
+				FeedScheduler.reschedule(feed, 0, new ArrayList<Date>());
+				feed.update();
+			} catch (RuntimeException e) {
+				Log.e("AFR", "FeedRetrieverService.retriever.reschedule(): failed to reschedule feed " + feed, e);
+			}
+		}
+		
+		/**
+		 * Makes the request for the feed and opens the response stream for {@link #parse(Notification)}. 
+		 * The feed is normally parsed straight from the connection; if <code>spool</code> is set, it is 
+		 * downloaded to a temporary file first.
+		 */
+		boolean download(Notification notification, boolean spool) {
+			// open a HTTP connection (or reuse an idle one) and get the headers
+			method = new GetMethod(feed.getUri().toString());
+			retry = false;
+			stopReading = false;
+			contentType = lastModified = etag = null;
 	        
 			Log.i("AFR", "FeedRetrieverService.retriever.download(): retrieving feed from: " + feed.getUri().toString());
 			
+			boolean opened = false;
 			try {
 				method.setFollowRedirects(true);
 				method.addRequestHeader("Accept-Encoding", "gzip");
@@ -154,60 +250,58 @@ public class FeedRetrieverService extends Service {
 					return false;
 				}
 				
-				// get the headers we are interested in
+				// get the headers we are interested in (they are only saved once the feed has been parsed)
 		        Header header = method.getResponseHeader("Last-Modified");
 		        if (header != null) {
-		        	feed.setLastModified(header.getValue());
+		        	lastModified = header.getValue();
 		        }
 		        header = method.getResponseHeader("ETag");
 		        if (header != null) {
-		        	feed.setEtag(header.getValue());
+		        	etag = header.getValue();
 		        }
 		        header = method.getResponseHeader("Content-Type");
 				if (header != null) {
 					contentType = header.getValue();
 				}
 				
-				// get the response stream
-				InputStream in = null;
-				if (method.getResponseHeader("Content-Encoding") != null && 
-					"gzip".equalsIgnoreCase(method.getResponseHeader("Content-Encoding").getValue())) {		
-				    in = new GZIPInputStream(method.getResponseBodyAsStream());
-				} else {
-				    in = method.getResponseBodyAsStream();
-				}
-				
-				// download the feed
-				file = File.createTempFile("afr-feed-", ".xml");
-				FileOutputStream out = new FileOutputStream(file);
+				// get the response stream (tracking progress on the raw stream, since that is what Content-Length counts)
+				in = method.getResponseBodyAsStream();
 		        
 				long length = method.getResponseContentLength();
-
 				if (length != -1) {
-					String details = getText(R.string.feed_retriever_notification_dl).toString();
 					Log.i("AFR", "FeedRetrieverService.retriever.download(): Content-Length = " + length);
-					
-					// use a 1 KiB buffer so we can update progress
-					byte[] buffer = new byte[1024];
-					float total = (float) length, readSoFar = 0f;
-					for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
-						out.write(buffer, 0, read);
-						readSoFar += read;
-						notification.statusBarBalloonText = String.format(details, 
-								feed.getName() != null ? feed.getName() : feed.getUri().toString(),
-								readSoFar/total * 100f).toString();
-					}
+					in = new ProgressInputStream(in, notification, feed, length);
 				} else {
 					Log.i("AFR", "FeedRetrieverService.retriever.download(): Content-Length not given");
-					// use a 8 KiB buffer
-					byte[] buffer = new byte[1024*8];
-					for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
-						out.write(buffer, 0, read);
+				}
+				
+				if (method.getResponseHeader("Content-Encoding") != null && 
+					"gzip".equalsIgnoreCase(method.getResponseHeader("Content-Encoding").getValue())) {		
+				    in = new GZIPInputStream(in);
+				}
+				
+				if (spool) {
+					// download the feed
+					file = File.createTempFile("afr-feed-", ".xml");
+					FileOutputStream out = new FileOutputStream(file);
+					try {
+						// use a 8 KiB buffer
+						byte[] buffer = new byte[1024*8];
+						for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+							out.write(buffer, 0, read);
+						}
+					} finally {
+						// closed even if the connection drops; the half-written file is then deleted by close()
+						out.close();
 					}
+					
+					in.close();
+					method.releaseConnection();
+					
+					in = new FileInputStream(file);
 				}
 				
-				in.close();
-				out.close();
+				opened = true;
 			} catch (UnknownHostException e) {
 				Log.e("AFR", "FeedRetrieverService.retriever.download(): failed to retrieve feed: host not found", e);
 				String detail = feed.getUri().getScheme() + "://" + feed.getUri().getHost();
@@ -223,22 +317,54 @@ public class FeedRetrieverService extends Service {
 				displayErrorNotification(R.string.feed_retriever_err_unspecified, 
 						feed.getName() != null ? feed.getName() : feed.getUri().toString());
 				return false;
-			} finally {				
-				method.releaseConnection();
+			} finally {
+				if (!opened) {
+					close(false);
+				}
 			}
 			
 			return true;
 		}
 		
+		/**
+		 * Closes the feed stream and releases the connection, deleting the temporary file (if there is one) unless 
+		 * it should be kept around for debugging.
+		 */
+		void close(boolean keepFile) {
+			if (stopReading) {
+				// closing the stream would read the rest of the response to keep the connection, which is just what we stopped to avoid
+				method.abort();
+			}
+			
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing we can do about it now
+				}
+				in = null;
+			}
+			
+			method.releaseConnection();
+			
+			if (file != null) {
+				if (keepFile) {
+					Log.i("AFR", "FeedRetrieverService.retriever.close(): keeping feed at " + file.getAbsolutePath());
+				} else {
+					file.delete();
+				}
+				file = null;
+			}
+		}
+		
 		boolean handleHttpStatus(int statusCode) {
 			String detail = feed.getName() != null ? feed.getName() : feed.getUri().toString();
 			int error = 0;
 			
 			if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
 				Log.i("AFR", "FeedRetrieverService.retriever.download(): [" + statusCode + "] feed unchanged");
-				// update the feed and quit
+				// update the feed (run() will save it) and quit
 				feed.setLastChecked(new Date(System.currentTimeMillis()));
-				feed.update();
 				return false;
 			} else if (statusCode == HttpStatus.SC_FORBIDDEN) {
 				Log.e("AFR", "FeedRetrieverService.retriever.download(): [" + statusCode + "] authorization required");
@@ -265,138 +391,248 @@ public class FeedRetrieverService extends Service {
 			return true;
 		}
 		
-		boolean parse(Notification notification) {		
+		/**
+		 * Parses the feed, saving it and its entries as they are read.
+		 * @return true if the feed was saved
+		 */
+		boolean parse(Notification notification) {
+			parsedFeed = null;
+			pendingEntries.clear();
+			dates = new ArrayList<Date>();
+			newEntries = 0;
+			saved = false;
+			knownRun = 0;
+			newestFirst = true;
+			lastDate = null;
+			stopReading = false;
+			// a retry after a failure part way through has to read the whole feed, so this is taken before startFeed() clears it
+			trustKnown = feed.isComplete();
+			
 			try {
-				FileInputStream stream = new FileInputStream(file);
-				parsedFeed = new SyndFeedInput().build(new XmlReader(stream, contentType, true));
+				feedParser.parse(in, contentType, this);
 			} catch (Exception e) {
+				if (file == null && causedByIOException(e)) {
+					// we lost the connection, rather than got a bad feed, so let run() try again
+					Log.i("AFR", "FeedRetrieverService.retriever.parse(): error reading feed", e);
+					retry = true;
+					return false;
+				}
+				
 				Log.i("AFR", "FeedRetrieverService.retriever.parse(): error parsing feed", e);
 				displayErrorNotification(R.string.feed_retriever_err_parse, feed.getName() != null ? feed.getName() : feed.getUri());
 				return false;
 			} finally {
-				file.delete();
+				// if we spooled the feed for debugging, keep it if it couldn't be parsed
+				close(!saved && spoolToFile);
 			}
 			
+			return saved;
+		}
+		
+		public boolean startFeed(ParsedFeed parsedFeed) {
+			this.parsedFeed = parsedFeed;
+			if (!updateFeed()) {
+				return false;
+			}
+			
+			// the feed has to be stored before its entries can be; it's only complete again once endFeed() is reached
+			feed.setLastChecked(new Date(System.currentTimeMillis()));
+			feed.setComplete(false);
+			if (!feed.saveOrUpdate()) {
+				Log.e("AFR", "FeedRetrieverService.retriever.startFeed(): failed to save feed " + feed);
+				return false;
+			}
+
 			return true;
 		}
 		
-		@SuppressWarnings("unchecked")
-		void save(Notification notification) {
-			feed.setName(parsedFeed.getTitle());
+		public boolean entry(ParsedEntry entry) {
+			if (entry.publishedDate != null) {
+				dates.add(entry.publishedDate);
+				if (lastDate != null && entry.publishedDate.after(lastDate)) {
+					newestFirst = false;
+				}
+				lastDate = entry.publishedDate;
+			}
+			
+			pendingEntries.add(entry);
+			// check small batches when we might stop early, so we don't read much further than we need to
+			int batch = stopAfterKnown > 0 && trustKnown ? Math.min(SAVE_BATCH, stopAfterKnown) : SAVE_BATCH;
+			if (pendingEntries.size() >= batch) {
+				flush();
+			}
+			
+			return !stopReading;
+		}
+		
+		public void endFeed(ParsedFeed parsedFeed) {
+			this.parsedFeed = parsedFeed;
+			flush();
+			
+			// pick up anything that came after the entries
+			updateFeed();
+			
+			// the conditional GET headers are only saved once the whole feed is in, so a feed that fails 
+			// part way through is retrieved in full next time (and, not being complete, read in full)
+			feed.setLastChecked(new Date(System.currentTimeMillis()));
+			feed.setComplete(true);
+			if (lastModified != null) {
+				feed.setLastModified(lastModified);
+			}
+			if (etag != null) {
+				feed.setEtag(etag);
+			}
+			
+			// work out when to check again, now that we know how much was new
+			FeedScheduler.reschedule(feed, newEntries, dates);
+			feed.update();
+			saved = true;
+		}
+		
+		/**
+		 * Copies the feed details from the parsed feed.
+		 * @return false if they aren't usable
+		 */
+		boolean updateFeed() {
+			feed.setName(parsedFeed.title);
 			try {
-				feed.setLink(new URI(parsedFeed.getLink()));
+				feed.setLink(new URI(parsedFeed.link));
 			} catch (URISyntaxException e) {
-				Log.e("AFR", "FeedRetrieverService.retriever.save(): failed to parse '" + parsedFeed.getLink() + "'", e);
+				Log.e("AFR", "FeedRetrieverService.retriever.updateFeed(): failed to parse '" + parsedFeed.link + "'", e);
 				displayErrorNotification(R.string.feed_retriever_err_unspecified, 
 						feed.getName() != null ? feed.getName() : feed.getUri().toString());
-				return;
+				return false;
 			}
 			try {
 				/* if the link and uri are the same, don't update the uri, because it
 				 * might or might not be the URI we use to retrieve the feed. 
 				 */
-				if (parsedFeed.getUri() != null && !parsedFeed.getUri().equals(parsedFeed.getLink())) {
-					feed.setUri(new URI(parsedFeed.getUri()));
+				if (parsedFeed.uri != null && !parsedFeed.uri.equals(parsedFeed.link)) {
+					feed.setUri(new URI(parsedFeed.uri));
 				}
 			} catch (URISyntaxException e) {
-				Log.e("AFR", "FeedRetrieverService.retriever.save(): failed to parse '" + parsedFeed.getUri() + "'", e);
+				Log.e("AFR", "FeedRetrieverService.retriever.updateFeed(): failed to parse '" + parsedFeed.uri + "'", e);
 				displayErrorNotification(R.string.feed_retriever_err_unspecified, 
 						feed.getName() != null ? feed.getName() : feed.getUri().toString());
+				return false;
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Saves the entries collected so far that aren't already stored.
+		 */
+		void flush() {
+			if (pendingEntries.isEmpty()) {
 				return;
 			}
-			feed.setLastChecked(new Date(System.currentTimeMillis()));
 			
-			feed.saveOrUpdate();
-
-			ArrayList<ContentValues> entries = new ArrayList<ContentValues>(parsedFeed.getEntries().size());
-			for (SyndEntry entry : (List<SyndEntry>) parsedFeed.getEntries()) {
-				ContentValues values = processEntry(entry);
+			// find out which entries we already have with a few lookups, rather than one per entry
+			ArrayList<String> uris = new ArrayList<String>(pendingEntries.size());
+			for (ParsedEntry entry : pendingEntries) {
+				if (entry.uri != null) {
+					uris.add(entry.uri);
+				}
+			}
+			Set<String> knownUris = Entry.findExistingUris(getContentResolver(), uris);
+			
+			// entries that were deleted count as known too, so they stay deleted
+			uris.removeAll(knownUris);
+			if (!uris.isEmpty()) {
+				knownUris.addAll(Entry.findDeletedUris(getContentResolver(), uris));
+			}
+			
+			ArrayList<ContentValues> entries = new ArrayList<ContentValues>(pendingEntries.size());
+			for (ParsedEntry entry : pendingEntries) {
+				boolean known = entry.uri != null && knownUris.contains(entry.uri);
+				
+				ContentValues values = processEntry(entry, knownUris);
 				if (values != null) {
 					entries.add(values);
 				}
+				
+				/* once we get to a run of entries we already have, the rest of the feed is most likely 
+				 * old news too; that only holds if the feed puts its newest entries first though, and if the 
+				 * last check got to the end of the feed (otherwise what's stored may only be its first part).
+				 */
+				knownRun = known ? knownRun + 1 : 0;
+				if (stopAfterKnown > 0 && knownRun >= stopAfterKnown && newestFirst && trustKnown) {
+					stopReading = true;
+				}
+			}
+			pendingEntries.clear();
+			
+			if (stopReading) {
+				Log.i("AFR", "FeedRetrieverService.retriever.flush(): " + knownRun + " entries in a row already stored, skipping the rest of the feed");
 			}
 			
-			ContentValues[] bulkValues = entries.toArray(new ContentValues[entries.size()]);
-			getContentResolver().bulkInsert(Afr.Entries.CONTENT_URI, bulkValues);
+			if (!entries.isEmpty()) {
+				ContentValues[] bulkValues = entries.toArray(new ContentValues[entries.size()]);
+				getContentResolver().bulkInsert(Afr.Entries.CONTENT_URI, bulkValues);
+				newEntries += entries.size();
+			}
 		}
 		
-		@SuppressWarnings("unchecked")
-		ContentValues processEntry(SyndEntry parsedEntry) {
+		ContentValues processEntry(ParsedEntry parsedEntry, Set<String> knownUris) {
 			Entry entry = new Entry(getContentResolver());
 
-			// check if this item has already been retrieved (and stop if it has)
-			entry.setUri(parsedEntry.getUri());
-			if (entry.loadByUri()) {
+			// check if this item has already been retrieved, or appears twice in the feed (and stop if it has)
+			if (parsedEntry.uri == null || !knownUris.add(parsedEntry.uri)) {
 				return null;
 			}
+			entry.setUri(parsedEntry.uri);
 			
 			entry.setFeed(feed);
 			// get the author (item author > feed author > item contributers > feed contributers > feed title)
-			String author = parsedEntry.getAuthor();
+			String author = parsedEntry.author;
 			if (author == null || author.length() == 0) {
-				if (parsedFeed.getAuthor() != null && parsedFeed.getAuthor().length() != 0) {
-					author = parsedFeed.getAuthor();
-				} else if (parsedEntry.getContributors() != null && !parsedEntry.getContributors().isEmpty()) {
-					author = ((SyndPerson) parsedEntry.getContributors().get(0)).getName();
-				} else if (parsedFeed.getContributors() != null && !parsedFeed.getContributors().isEmpty()) {
-					author = ((SyndPerson) parsedFeed.getContributors().get(0)).getName();
+				if (parsedFeed.author != null && parsedFeed.author.length() != 0) {
+					author = parsedFeed.author;
+				} else if (parsedEntry.contributor != null) {
+					author = parsedEntry.contributor;
+				} else if (parsedFeed.contributor != null) {
+					author = parsedFeed.contributor;
 				} else {
-					author = parsedFeed.getTitle();
+					author = parsedFeed.title;
 				}
 			}
 			entry.setAuthor(author);
-			entry.setTitle(parsedEntry.getTitle());
-			if (parsedEntry.getPublishedDate() != null) {
-				entry.setDate(parsedEntry.getPublishedDate());
+			entry.setTitle(parsedEntry.title);
+			if (parsedEntry.publishedDate != null) {
+				entry.setDate(parsedEntry.publishedDate);
 			} else {
 				entry.setDate(new Date(System.currentTimeMillis()));
 			}
 			try {
-				entry.setLink(new URI(parsedEntry.getLink()));
+				entry.setLink(new URI(parsedEntry.link));
 			} catch (URISyntaxException e) {
-				Log.e("AFR", "FeedRetrieverService.retriever.saveItem(): failed to parse '" + parsedEntry.getLink() + "'", e);
+				Log.e("AFR", "FeedRetrieverService.retriever.saveItem(): failed to parse '" + parsedEntry.link + "'", e);
 				displayErrorNotification(R.string.feed_retriever_err_unspecified, 
 						feed.getName() != null ? feed.getName() : feed.getUri().toString());
 				return null;
 			}
 			
-			// get the content (prefer HTML over plain text)
-			SyndContent bestContent = null;
-			for (SyndContent content : (List<SyndContent>) parsedEntry.getContents()) {
-				if (bestContent == null) {
-					bestContent = content;
-					continue;
-				}
-				
-				if (content.getType() != null && bestContent.getType() == null) {
-					bestContent = content;
-					break;
-				}
-			}
-			
-			if (bestContent == null) {
-				// no content found? get it from the description then
-				bestContent = parsedEntry.getDescription();
-			}
-			
-			if (bestContent == null) {
+			if (parsedEntry.content == null) {
 				// we're screwed. let's move on
 				Log.e("AFR", "FeedRetrieverService.retriever.saveItem(): no item content found");
 				displayErrorNotification(R.string.feed_retriever_err_unspecified, 
 						feed.getName() != null ? feed.getName() : feed.getUri().toString());
 				return null;
 			}
-			entry.setContent(bestContent.getValue());
-			
-			if (bestContent.getType() == "html") {
-				entry.setType("text/html");
-			} else {
-				entry.setType("text/plain");
-			}
+			entry.setContent(parsedEntry.content);
+			entry.setType(parsedEntry.contentType);
 
-			return entry.getContentValues();
+			ContentValues values = entry.getContentValues();
+			if (values == null) {
+				return null;
+			}
+			// render the entry now, so the viewer only has to load it
+			values.put(Afr.Entries.RENDERED, ArticleRenderer.render(parsedEntry.title, parsedEntry.content, 
+					parsedEntry.contentType, parsedEntry.link));
+			return values;
 		}
-	};
+	}
 	
 	@Override
 	public IBinder getBinder() {
@@ -408,18 +644,183 @@ public class FeedRetrieverService extends Service {
 		notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 		queue = new LinkedBlockingQueue<Feed>();
 		
-		thread = new Thread(null, retriever, "FeedRetrieverService worker");
-		thread.setDaemon(true);
-		thread.start();
+		SharedPreferences prefs = getSharedPreferences(Prefs.GLOBAL_PREFS, 0);
+		maxPerHost = Math.max(1, prefs.getInt(Prefs.RETRIEVER_MAX_PER_HOST, Prefs.DEFAULT_RETRIEVER_MAX_PER_HOST));
+		spoolToFile = prefs.getBoolean(Prefs.RETRIEVER_SPOOL_TO_FILE, false);
+		stopAfterKnown = Math.max(0, prefs.getInt(Prefs.RETRIEVER_STOP_AFTER_KNOWN, Prefs.DEFAULT_RETRIEVER_STOP_AFTER_KNOWN));
+		
+		workers = new Thread[Math.max(1, prefs.getInt(Prefs.RETRIEVER_WORKERS, Prefs.DEFAULT_RETRIEVER_WORKERS))];
+		
+		connectionManager = new MultiThreadedHttpConnectionManager();
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(maxPerHost);
+		params.setMaxTotalConnections(workers.length);
+		params.setSoTimeout(SOCKET_TIMEOUT);
+		
+		client = new HttpClient(connectionManager);
+		client.getParams().setParameter(HttpMethodParams.USER_AGENT, getString(R.string.app_user_agent_string));
+		
+		// close connections that have been sitting unused for too long
+		idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+		idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+		idleConnectionTimeoutThread.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+		idleConnectionTimeoutThread.setTimeoutInterval(IDLE_CONNECTION_TIMEOUT / 3);
+		idleConnectionTimeoutThread.start();
+		
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(null, new Retriever(), "FeedRetrieverService worker " + (i + 1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		
+		scheduler = new Thread(null, new FeedScheduler(this), "FeedRetrieverService scheduler");
+		scheduler.setDaemon(true);
+		scheduler.start();
 		
 		super.onCreate();
 	}
 	
 	@Override
 	protected void onDestroy() {
+		scheduler.interrupt();
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		
+		idleConnectionTimeoutThread.shutdown();
+		connectionManager.shutdown();
+		
 		super.onDestroy();
 	}
 	
+	/**
+	 * Queues a stored feed for retrieval, unless it is already waiting or being retrieved.
+	 */
+	void queueFeed(long id) {
+		synchronized (pendingFeeds) {
+			if (!pendingFeeds.add(id)) {
+				return;
+			}
+		}
+		
+		Feed feed = new Feed(getContentResolver(), id);
+		if (!feed.load()) {
+			Log.e("AFR", "FeedRetrieverService.queueFeed(long): failed to load feed with id=" + id);
+			displayErrorNotification(R.string.feed_retriever_err_unspecified_no_details);
+			synchronized (pendingFeeds) {
+				pendingFeeds.remove(id);
+			}
+			return;
+		}
+		
+		queue.add(feed);
+	}
+	
+	static String getHost(Feed feed) {
+		String host = feed.getUri().getHost();
+		return host != null ? host.toLowerCase() : "";
+	}
+	
+	/**
+	 * Reserves one of the host's connection slots for a feed. If the host already has the maximum number 
+	 * of retrievals in progress, the feed is set aside until one of them finishes.
+	 * @return true if the feed can be retrieved now, false if it has been deferred
+	 */
+	boolean acquireHost(String host, Feed feed) {
+		synchronized (activeHosts) {
+			Integer active = activeHosts.get(host);
+			if (active != null && active >= maxPerHost) {
+				LinkedList<Feed> deferred = deferredFeeds.get(host);
+				if (deferred == null) {
+					deferred = new LinkedList<Feed>();
+					deferredFeeds.put(host, deferred);
+				}
+				deferred.add(feed);
+				return false;
+			}
+			
+			activeHosts.put(host, active != null ? active + 1 : 1);
+			activeRetrievals++;
+			return true;
+		}
+	}
+	
+	/**
+	 * Releases a host connection slot, handing the next deferred feed for the host (if any) back to the workers.
+	 * @return true if there are no more retrievals in progress
+	 */
+	boolean releaseHost(String host) {
+		synchronized (activeHosts) {
+			int active = activeHosts.get(host) - 1;
+			if (active == 0) {
+				activeHosts.remove(host);
+			} else {
+				activeHosts.put(host, active);
+			}
+			
+			LinkedList<Feed> deferred = deferredFeeds.get(host);
+			if (deferred != null) {
+				queue.add(deferred.removeFirst());
+				if (deferred.isEmpty()) {
+					deferredFeeds.remove(host);
+				}
+			}
+			
+			return --activeRetrievals == 0;
+		}
+	}
+	
+	static boolean causedByIOException(Throwable t) {
+		for (; t != null; t = t.getCause()) {
+			if (t instanceof IOException) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Updates the status notification with the download progress as the feed is read.
+	 */
+	private class ProgressInputStream extends FilterInputStream {
+		private final Notification notification;
+		private final String details;
+		private final String name;
+		private final float total;
+		private float readSoFar;
+		
+		public ProgressInputStream(InputStream in, Notification notification, Feed feed, long length) {
+			super(in);
+			this.notification = notification;
+			this.details = getText(R.string.feed_retriever_notification_dl).toString();
+			this.name = feed.getName() != null ? feed.getName() : feed.getUri().toString();
+			this.total = (float) length;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				progress(1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read != -1) {
+				progress(read);
+			}
+			return read;
+		}
+		
+		private void progress(int read) {
+			readSoFar += read;
+			notification.statusBarBalloonText = String.format(details, name, readSoFar/total * 100f).toString();
+		}
+	}
+	
 	Notification displayStatusNotification(Feed feed) {
 		String text = String.format(getString(R.string.feed_retriever_notification), 
 				feed.getName() != null ? feed.getName() : feed.getUri()).toString();
@@ -434,4 +835,4 @@ public class FeedRetrieverService extends Service {
 				String.format(getString(textResId), params).toString(), 
 				NotificationManager.LENGTH_SHORT, null);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
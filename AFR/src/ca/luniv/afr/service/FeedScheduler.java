@@ -0,0 +1,153 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import android.database.Cursor;
+import android.util.Log;
+import ca.luniv.afr.provider.Afr;
+import ca.luniv.afr.provider.dao.Feed;
+
+/**
+ * Queues feeds for retrieval as they come due. Each feed's check interval is learned from how often
+ * it publishes entries: busy feeds are checked often, while feeds that keep coming back unchanged
+ * are checked less and less.
+ */
+class FeedScheduler implements Runnable {
+	static final long MIN_INTERVAL = 15 * 60 * 1000;
+	static final long MAX_INTERVAL = 24 * 60 * 60 * 1000;
+	static final long DEFAULT_INTERVAL = 60 * 60 * 1000;
+
+	// how much to stretch the interval each time a check finds nothing new
+	static final float BACKOFF = 1.5f;
+	// how many of the newest entries to look at when estimating how often a feed publishes
+	static final int SAMPLE_SIZE = 10;
+
+	// how long to sleep between looking for due feeds, at most and at least
+	static final long MAX_SLEEP = 15 * 60 * 1000;
+	static final long MIN_SLEEP = 60 * 1000;
+
+	// how often to throw out expired entries
+	static final long RETENTION_INTERVAL = 6 * 60 * 60 * 1000;
+
+	private static final String[] projection = {
+		Afr.Feeds._ID,
+		Afr.Feeds.NEXT_CHECK
+	};
+
+	private final FeedRetrieverService service;
+	private long lastRetention;
+	private boolean compressed;
+
+	FeedScheduler(FeedRetrieverService service) {
+		this.service = service;
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				long next = now + MAX_SLEEP;
+
+				// anything going wrong is tried again after the sleep, rather than stopping the feeds from ever being checked again
+				try {
+					Cursor c = service.getContentResolver().query(Afr.Feeds.CONTENT_URI, projection,
+							null, null, Afr.Feeds.NEXT_CHECK + " ASC");
+					try {
+						while (c.next()) {
+							long due = c.getLong(1);
+							if (due > now) {
+								next = Math.min(next, due);
+								break;
+							}
+
+							service.queueFeed(c.getLong(0));
+						}
+					} finally {
+						c.close();
+					}
+
+					// a failed pass only holds up retention, not the feeds; it's tried again next time round
+					if (now - lastRetention >= RETENTION_INTERVAL) {
+						try {
+							new RetentionPass(service).run();
+							lastRetention = now;
+						} catch (RuntimeException e) {
+							Log.e("AFR", "FeedScheduler.run(): failed to throw out expired entries", e);
+						}
+					}
+
+					// entries stored by older versions may not have their content compressed yet
+					if (!compressed) {
+						new CompressionPass(service).run();
+						compressed = true;
+					}
+				} catch (RuntimeException e) {
+					Log.e("AFR", "FeedScheduler.run(): failed to schedule feeds", e);
+				}
+
+				Thread.sleep(Math.max(next - now, MIN_SLEEP));
+			}
+		} catch (InterruptedException e) {
+			// if we are interrupted, we are going away, so do nothing
+		}
+	}
+
+	/**
+	 * Works out the feed's new check interval and when it is next due. This doesn't save the feed.
+	 * @param feed the feed that was just checked
+	 * @param newEntries the number of new entries found
+	 * @param dates the published dates of the entries in the feed (may be empty)
+	 */
+	static void reschedule(Feed feed, int newEntries, List<Date> dates) {
+		long interval = feed.getUpdateInterval() > 0 ? feed.getUpdateInterval() : DEFAULT_INTERVAL;
+
+		if (newEntries > 0) {
+			long published = estimatePublishInterval(dates);
+			if (published > 0) {
+				// check about twice as often as the feed publishes, so new entries don't wait too long
+				interval = published / 2;
+			} else {
+				interval = (long) (interval / BACKOFF);
+			}
+		} else {
+			interval = (long) (interval * BACKOFF);
+		}
+
+		interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+		feed.setUpdateInterval(interval);
+		feed.setNextCheck(new Date(System.currentTimeMillis() + interval));
+	}
+
+	/**
+	 * @return the average time between the newest entries, or 0 if there aren't enough dated entries to tell
+	 */
+	static long estimatePublishInterval(List<Date> dates) {
+		if (dates.size() < 2) {
+			return 0;
+		}
+
+		ArrayList<Date> sorted = new ArrayList<Date>(dates);
+		Collections.sort(sorted, Collections.reverseOrder());
+
+		int n = Math.min(sorted.size(), SAMPLE_SIZE);
+		return (sorted.get(0).getTime() - sorted.get(n - 1).getTime()) / (n - 1);
+	}
+}
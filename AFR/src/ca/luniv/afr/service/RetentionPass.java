@@ -0,0 +1,136 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service;
+
+import android.content.ContentResolver;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.ContentURI;
+import android.util.Log;
+import ca.luniv.afr.Prefs;
+import ca.luniv.afr.provider.Afr;
+
+/**
+ * Deletes the entries that have outlived their feed's {@link Afr.FeedsColumns#EXPIRE_AFTER} (or the 
+ * application default). Entries are aged by their date, and are deleted a chunk at a time so the 
+ * database is never tied up for long.
+ */
+class RetentionPass {
+	// how many entries to delete at a time
+	static final int CHUNK_SIZE = 100;
+	
+	// roughly how much space an entry takes up
+	private static final String ENTRY_SIZE = "length(" + Afr.Entries.URI + ") + length(" + Afr.Entries.CONTENT + ") + " +
+		"ifnull(length(" + Afr.Entries.TITLE + "), 0) + ifnull(length(" + Afr.Entries.AUTHOR + "), 0) + " + 
+		"ifnull(length(" + Afr.Entries.LINK + "), 0)";
+	
+	private static final String[] feedsProjection = {
+		Afr.Feeds._ID,
+		Afr.Feeds.EXPIRE_AFTER
+	};
+	
+	private static final String[] entriesProjection = {
+		Afr.Entries._ID,
+		ENTRY_SIZE
+	};
+	
+	private final ContentResolver contentResolver;
+	private final long defaultExpireAfter;
+	private final boolean keepUnread;
+	private final long tombstoneExpireAfter;
+	
+	private int deletedEntries;
+	private long deletedBytes;
+	
+	RetentionPass(FeedRetrieverService service) {
+		contentResolver = service.getContentResolver();
+		
+		SharedPreferences prefs = service.getSharedPreferences(Prefs.GLOBAL_PREFS, 0);
+		defaultExpireAfter = prefs.getLong(Prefs.RETENTION_EXPIRE_AFTER, Prefs.DEFAULT_RETENTION_EXPIRE_AFTER);
+		keepUnread = prefs.getBoolean(Prefs.RETENTION_KEEP_UNREAD, Prefs.DEFAULT_RETENTION_KEEP_UNREAD);
+		tombstoneExpireAfter = prefs.getLong(Prefs.RETENTION_TOMBSTONE_EXPIRE_AFTER, Prefs.DEFAULT_RETENTION_TOMBSTONE_EXPIRE_AFTER);
+	}
+	
+	public void run() {
+		long now = System.currentTimeMillis();
+		
+		Cursor c = contentResolver.query(Afr.Feeds.CONTENT_URI, feedsProjection, null, null, null);
+		while (c.next()) {
+			long expireAfter = c.getLong(1) > 0 ? c.getLong(1) : defaultExpireAfter;
+			if (expireAfter > 0) {
+				expireEntries(c.getLong(0), now - expireAfter * 1000);
+			}
+		}
+		c.close();
+		
+		Log.i("AFR", "RetentionPass.run(): deleted " + deletedEntries + " expired entries (about " + deletedBytes + " bytes)");
+		
+		// forget about entries that were deleted long enough ago that their feeds won't list them anymore
+		if (tombstoneExpireAfter > 0) {
+			int tombstones = contentResolver.delete(Afr.Tombstones.CONTENT_URI, Afr.Tombstones.DELETED + " < ?", 
+					new String[] { Long.toString(now - tombstoneExpireAfter * 1000) });
+			Log.i("AFR", "RetentionPass.run(): deleted " + tombstones + " expired tombstones");
+		}
+	}
+	
+	/**
+	 * Deletes the feed's entries that are older than <code>cutoff</code>, oldest first.
+	 */
+	void expireEntries(long feed, long cutoff) {
+		ContentURI uri = Afr.Feeds.CONTENT_URI.addId(feed).addPath("entries");
+		
+		String selection = Afr.Entries.DATE + " < ?";
+		if (keepUnread) {
+			selection += " AND " + Afr.Entries.READ + " = 1";
+		}
+		String[] selectionArgs = { Long.toString(cutoff) };
+		
+		int found;
+		do {
+			Cursor c = contentResolver.query(Afr.Entries.limit(uri, CHUNK_SIZE), entriesProjection, selection, selectionArgs, 
+					Afr.Entries.DATE + " ASC");
+			found = c.count();
+			if (found == 0) {
+				c.close();
+				break;
+			}
+			
+			StringBuilder ids = new StringBuilder(Afr.Entries._ID).append(" IN (");
+			long bytes = 0;
+			while (c.next()) {
+				if (!c.isFirst()) {
+					ids.append(", ");
+				}
+				ids.append(c.getLong(0));
+				bytes += c.getLong(1);
+			}
+			ids.append(')');
+			c.close();
+			
+			int deleted = contentResolver.delete(uri, ids.toString(), null);
+			deletedEntries += deleted;
+			deletedBytes += bytes;
+		} while (found == CHUNK_SIZE);
+	}
+	
+	public int getDeletedEntries() {
+		return deletedEntries;
+	}
+	
+	public long getDeletedBytes() {
+		return deletedBytes;
+	}
+}
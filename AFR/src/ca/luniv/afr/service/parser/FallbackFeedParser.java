@@ -0,0 +1,51 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service.parser;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.util.Log;
+
+/**
+ * Tries one parser, and if it doesn't understand the feed's format, starts over with another.
+ */
+public class FallbackFeedParser implements FeedParser {
+	// how much of the document to hold on to, so the fallback parser can start from the beginning
+	private static final int MARK_LIMIT = 64 * 1024;
+	
+	private final FeedParser primary;
+	private final FeedParser fallback;
+	
+	public FallbackFeedParser(FeedParser primary, FeedParser fallback) {
+		this.primary = primary;
+		this.fallback = fallback;
+	}
+	
+	public void parse(InputStream in, String contentType, FeedHandler handler) throws IOException, FeedParserException {
+		BufferedInputStream buffered = new BufferedInputStream(in, 8 * 1024);
+		buffered.mark(MARK_LIMIT);
+		
+		try {
+			primary.parse(buffered, contentType, handler);
+		} catch (UnsupportedFeedFormatException e) {
+			Log.i("AFR", "FallbackFeedParser.parse(): " + e.getMessage() + ", using the fallback parser");
+			buffered.reset();
+			fallback.parse(buffered, contentType, handler);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service.parser;
+
+/**
+ * Receives a feed from a {@link FeedParser} one entry at a time.
+ */
+public interface FeedHandler {
+	/**
+	 * Called once, before the first entry (or at the end of the document, if there aren't any entries). 
+	 * Some formats allow feed details to come after the entries, so the feed may not be complete yet.
+	 * @return false to abandon the feed, in which case {@link #endFeed(ParsedFeed)} won't be called
+	 */
+	boolean startFeed(ParsedFeed feed);
+	
+	/**
+	 * Called for each entry, in document order.
+	 * @return false to stop reading entries; {@link #endFeed(ParsedFeed)} is still called
+	 */
+	boolean entry(ParsedEntry entry);
+	
+	/**
+	 * Called once all the entries have been read.
+	 */
+	void endFeed(ParsedFeed feed);
+}
@@ -0,0 +1,32 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a feed document, handing the feed and its entries to a {@link FeedHandler} as they are read, 
+ * so the whole document never has to be held in memory at once.
+ */
+public interface FeedParser {
+	/**
+	 * @param in the feed document
+	 * @param contentType the Content-Type the document was served with (may be null)
+	 * @param handler gets the feed and each of its entries
+	 */
+	void parse(InputStream in, String contentType, FeedHandler handler) throws IOException, FeedParserException;
+}
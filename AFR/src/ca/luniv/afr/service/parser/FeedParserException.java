@@ -0,0 +1,31 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service.parser;
+
+/**
+ * Thrown when a feed document can't be parsed.
+ */
+public class FeedParserException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public FeedParserException(String message) {
+		super(message);
+	}
+	
+	public FeedParserException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service.parser;
+
+/**
+ * The feed level details of a parsed feed.
+ */
+public class ParsedFeed {
+	public String title;
+	public String link;
+	public String uri;
+	public String author;
+	public String contributor;
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder().append('{');
+		sb.append("title: ").append(title).append(", ");
+		sb.append("link: ").append(link).append(", ");
+		sb.append("uri: ").append(uri).append(", ");
+		sb.append("author: ").append(author).append(", ");
+		sb.append("contributor: ").append(contributor).append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,518 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import com.sun.syndication.io.impl.DateParser;
+
+/**
+ * Parses RSS 0.9x/2.0, RSS 1.0 (and 0.90) and Atom 1.0 feeds with a pull parser, handing each entry over as 
+ * soon as it has been read. Only one entry is held in memory at a time, no matter how big the feed is.
+ * <p>
+ * Entry URIs are worked out the same way ROME does it (RSS guid or link, RDF rdf:about, Atom id), so 
+ * entries stored by either parser are recognized by the other. Any other format gets an 
+ * {@link UnsupportedFeedFormatException}.
+ */
+public class PullFeedParser implements FeedParser {
+	static final String NS_RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	static final String NS_RSS_090 = "http://my.netscape.com/rdf/simple/0.9/";
+	static final String NS_RSS_10 = "http://purl.org/rss/1.0/";
+	static final String NS_ATOM_10 = "http://www.w3.org/2005/Atom";
+	static final String NS_XHTML = "http://www.w3.org/1999/xhtml";
+	static final String NS_DC = "http://purl.org/dc/elements/1.1/";
+	static final String NS_CONTENT = "http://purl.org/rss/1.0/modules/content/";
+	
+	// lets the parser cope with the HTML entities and other sloppiness that turn up in real feeds
+	private static final String FEATURE_RELAXED = "http://xmlpull.org/v1/doc/features.html#relaxed";
+	
+	public void parse(InputStream in, String contentType, FeedHandler handler) throws IOException, FeedParserException {
+		XmlPullParser parser;
+		try {
+			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			parser = factory.newPullParser();
+			try {
+				parser.setFeature(FEATURE_RELAXED, true);
+			} catch (XmlPullParserException e) {
+				// not supported by this parser, so we'll have to be strict
+			}
+			
+			// an explicit charset wins, otherwise the parser works it out from the document
+			parser.setInput(in, getCharset(contentType));
+		} catch (XmlPullParserException e) {
+			throw new FeedParserException("failed to set up the pull parser", e);
+		}
+		
+		try {
+			new DocumentReader(parser, handler).read();
+		} catch (XmlPullParserException e) {
+			throw new FeedParserException("error parsing feed: " + e.getMessage(), e);
+		}
+	}
+	
+	static String getCharset(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		
+		for (String param : contentType.split(";")) {
+			param = param.trim();
+			if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+				String charset = param.substring(8).trim();
+				if (charset.length() > 1 && charset.charAt(0) == '"') {
+					charset = charset.substring(1, charset.length() - 1);
+				}
+				return charset.length() > 0 ? charset : null;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * The state of a single parse.
+	 */
+	private static class DocumentReader {
+		private final XmlPullParser parser;
+		private final FeedHandler handler;
+		private final ParsedFeed feed = new ParsedFeed();
+		
+		private boolean started;
+		// the handler doesn't want any more entries
+		private boolean stopped;
+		// the handler doesn't want the feed at all
+		private boolean aborted;
+		
+		DocumentReader(XmlPullParser parser, FeedHandler handler) {
+			this.parser = parser;
+			this.handler = handler;
+		}
+		
+		void read() throws IOException, XmlPullParserException, FeedParserException {
+			int event;
+			do {
+				event = parser.next();
+				if (event == XmlPullParser.END_DOCUMENT) {
+					throw new FeedParserException("error parsing feed: empty document");
+				}
+			} while (event != XmlPullParser.START_TAG);
+			
+			if (is("", "rss")) {
+				readRss();
+			} else if (is(NS_RDF, "RDF")) {
+				readRdf();
+			} else if (is(NS_ATOM_10, "feed")) {
+				readAtomFeed();
+			} else {
+				throw new UnsupportedFeedFormatException("unsupported feed format: {" + 
+						parser.getNamespace() + "}" + parser.getName());
+			}
+			
+			startFeed();
+			if (!aborted) {
+				handler.endFeed(feed);
+			}
+		}
+		
+		void startFeed() {
+			if (!started) {
+				started = true;
+				if (!handler.startFeed(feed)) {
+					stopped = aborted = true;
+				}
+			}
+		}
+		
+		void entry(ParsedEntry entry) {
+			startFeed();
+			if (!stopped && !handler.entry(entry)) {
+				stopped = true;
+			}
+		}
+		
+		/*
+		 * RSS 0.9x and 2.0
+		 */
+		
+		void readRss() throws IOException, XmlPullParserException {
+			int depth = parser.getDepth();
+			while (!stopped && nextChild(depth)) {
+				if (is("", "channel")) {
+					readChannel("");
+				}
+			}
+		}
+		
+		/*
+		 * RSS 1.0 and 0.90; the items come after the channel instead of inside it
+		 */
+		
+		void readRdf() throws IOException, XmlPullParserException {
+			int depth = parser.getDepth();
+			while (!stopped && nextChild(depth)) {
+				if (isRdfRss("channel")) {
+					readChannel(parser.getNamespace());
+				} else if (isRdfRss("item")) {
+					entry(readItem(parser.getNamespace()));
+				}
+			}
+		}
+		
+		boolean isRdfRss(String name) {
+			return is(NS_RSS_10, name) || is(NS_RSS_090, name);
+		}
+		
+		void readChannel(String ns) throws IOException, XmlPullParserException {
+			String about = parser.getAttributeValue(NS_RDF, "about");
+			
+			int depth = parser.getDepth();
+			while (!stopped && nextChild(depth)) {
+				if (is(ns, "title")) {
+					feed.title = readText();
+				} else if (is(ns, "link")) {
+					feed.link = readText();
+				} else if (is(ns, "item")) {
+					entry(readItem(ns));
+				} else if (is(NS_DC, "creator")) {
+					feed.author = readText();
+				} else if (is(NS_DC, "contributor")) {
+					feed.contributor = readText();
+				}
+			}
+			
+			if (ns.length() != 0) {
+				// only RDF channels have a URI
+				feed.uri = about != null ? about : feed.link;
+			}
+		}
+		
+		ParsedEntry readItem(String ns) throws IOException, XmlPullParserException {
+			ParsedEntry entry = new ParsedEntry();
+			String guid = null;
+			boolean permaLink = true;
+			String author = null;
+			String description = null;
+			String encoded = null;
+			Date pubDate = null;
+			Date dcDate = null;
+			
+			entry.uri = parser.getAttributeValue(NS_RDF, "about");
+			
+			int depth = parser.getDepth();
+			while (nextChild(depth)) {
+				if (is(ns, "title")) {
+					entry.title = readText();
+				} else if (is(ns, "link")) {
+					entry.link = readText();
+				} else if (is(ns, "description")) {
+					description = readText();
+				} else if (is(ns, "guid")) {
+					permaLink = !"false".equalsIgnoreCase(parser.getAttributeValue(null, "isPermaLink"));
+					guid = readText();
+				} else if (is(ns, "pubDate")) {
+					pubDate = DateParser.parseDate(readText());
+				} else if (is(ns, "author")) {
+					author = readText();
+				} else if (is(NS_DC, "creator")) {
+					entry.author = readText();
+				} else if (is(NS_DC, "contributor")) {
+					entry.contributor = readText();
+				} else if (is(NS_DC, "date")) {
+					dcDate = DateParser.parseDate(readText());
+				} else if (is(NS_CONTENT, "encoded")) {
+					encoded = readText();
+				}
+			}
+			
+			if (entry.uri == null) {
+				if (guid != null) {
+					entry.uri = guid;
+					if (entry.link == null && permaLink) {
+						entry.link = guid;
+					}
+				} else {
+					entry.uri = entry.link;
+				}
+			}
+			if (entry.author == null) {
+				entry.author = author;
+			}
+			entry.publishedDate = pubDate != null ? pubDate : dcDate;
+			entry.content = encoded != null ? encoded : description;
+			entry.contentType = entry.content != null ? "text/html" : null;
+			
+			return entry;
+		}
+		
+		/*
+		 * Atom 1.0
+		 */
+		
+		void readAtomFeed() throws IOException, XmlPullParserException {
+			int depth = parser.getDepth();
+			while (!stopped && nextChild(depth)) {
+				if (is(NS_ATOM_10, "title")) {
+					feed.title = readText();
+				} else if (is(NS_ATOM_10, "link")) {
+					if (feed.link == null && isAlternateLink()) {
+						feed.link = parser.getAttributeValue(null, "href");
+					}
+				} else if (is(NS_ATOM_10, "id")) {
+					feed.uri = readText();
+				} else if (is(NS_ATOM_10, "author")) {
+					if (feed.author == null) {
+						feed.author = readPersonName();
+					}
+				} else if (is(NS_ATOM_10, "contributor")) {
+					if (feed.contributor == null) {
+						feed.contributor = readPersonName();
+					}
+				} else if (is(NS_ATOM_10, "entry")) {
+					entry(readAtomEntry());
+				}
+			}
+		}
+		
+		ParsedEntry readAtomEntry() throws IOException, XmlPullParserException {
+			ParsedEntry entry = new ParsedEntry();
+			Date published = null;
+			Date updated = null;
+			String summary = null;
+			String summaryType = null;
+			
+			int depth = parser.getDepth();
+			while (nextChild(depth)) {
+				if (is(NS_ATOM_10, "id")) {
+					entry.uri = readText();
+				} else if (is(NS_ATOM_10, "title")) {
+					entry.title = readText();
+				} else if (is(NS_ATOM_10, "link")) {
+					if (entry.link == null && isAlternateLink()) {
+						entry.link = parser.getAttributeValue(null, "href");
+					}
+				} else if (is(NS_ATOM_10, "author")) {
+					if (entry.author == null) {
+						entry.author = readPersonName();
+					}
+				} else if (is(NS_ATOM_10, "contributor")) {
+					if (entry.contributor == null) {
+						entry.contributor = readPersonName();
+					}
+				} else if (is(NS_ATOM_10, "published")) {
+					published = DateParser.parseDate(readText());
+				} else if (is(NS_ATOM_10, "updated")) {
+					updated = DateParser.parseDate(readText());
+				} else if (is(NS_ATOM_10, "content")) {
+					// out of line content has nothing for us to show
+					if (entry.content == null && parser.getAttributeValue(null, "src") == null) {
+						entry.contentType = getAtomContentType();
+						entry.content = readAtomText();
+					}
+				} else if (is(NS_ATOM_10, "summary")) {
+					summaryType = getAtomContentType();
+					summary = readAtomText();
+				}
+			}
+			
+			if (entry.uri == null) {
+				entry.uri = entry.link;
+			}
+			entry.publishedDate = published != null ? published : updated;
+			if (entry.content == null) {
+				entry.content = summary;
+				entry.contentType = summaryType;
+			}
+			
+			return entry;
+		}
+		
+		boolean isAlternateLink() {
+			String rel = parser.getAttributeValue(null, "rel");
+			return rel == null || "alternate".equals(rel);
+		}
+		
+		String readPersonName() throws IOException, XmlPullParserException {
+			String name = null;
+			
+			int depth = parser.getDepth();
+			while (nextChild(depth)) {
+				if (is(NS_ATOM_10, "name")) {
+					name = readText();
+				}
+			}
+			
+			return name;
+		}
+		
+		String getAtomContentType() {
+			String type = parser.getAttributeValue(null, "type");
+			return type != null && type.indexOf("html") != -1 ? "text/html" : "text/plain";
+		}
+		
+		/**
+		 * Reads an Atom text construct, turning inline XHTML back into markup.
+		 */
+		String readAtomText() throws IOException, XmlPullParserException {
+			if (!"xhtml".equals(parser.getAttributeValue(null, "type"))) {
+				return readText();
+			}
+			
+			StringBuilder sb = new StringBuilder();
+			int depth = parser.getDepth();
+			while (nextChild(depth)) {
+				// the content is wrapped in a div that isn't part of it
+				if (is(NS_XHTML, "div")) {
+					readMarkup(sb);
+				} else {
+					appendStartTag(sb);
+					readMarkup(sb);
+					sb.append("</").append(parser.getName()).append('>');
+				}
+			}
+			
+			return sb.toString().trim();
+		}
+		
+		/*
+		 * helpers
+		 */
+		
+		boolean is(String ns, String name) {
+			return name.equals(parser.getName()) && ns.equals(parser.getNamespace());
+		}
+		
+		/**
+		 * Moves to the next child of the element at <code>depth</code>, skipping over anything nested deeper, 
+		 * including whatever is left of the previous child.
+		 * @return false once the element has ended
+		 */
+		boolean nextChild(int depth) throws IOException, XmlPullParserException {
+			while (true) {
+				switch (parser.next()) {
+				case XmlPullParser.START_TAG:
+					if (parser.getDepth() == depth + 1) {
+						return true;
+					}
+					break;
+				case XmlPullParser.END_TAG:
+					if (parser.getDepth() == depth) {
+						return false;
+					}
+					break;
+				case XmlPullParser.END_DOCUMENT:
+					throw new XmlPullParserException("unexpected end of document", parser, null);
+				}
+			}
+		}
+		
+		/**
+		 * Reads all the text in the current element (ignoring any markup) and moves to its end tag.
+		 */
+		String readText() throws IOException, XmlPullParserException {
+			StringBuilder sb = new StringBuilder();
+			
+			int depth = parser.getDepth();
+			while (true) {
+				switch (parser.next()) {
+				case XmlPullParser.TEXT:
+					sb.append(parser.getText());
+					break;
+				case XmlPullParser.END_TAG:
+					if (parser.getDepth() == depth) {
+						return sb.toString().trim();
+					}
+					break;
+				case XmlPullParser.END_DOCUMENT:
+					throw new XmlPullParserException("unexpected end of document", parser, null);
+				}
+			}
+		}
+		
+		/**
+		 * Writes out everything inside the current element as markup and moves to its end tag.
+		 */
+		void readMarkup(StringBuilder sb) throws IOException, XmlPullParserException {
+			boolean emptyTag = false;
+			
+			int depth = parser.getDepth();
+			while (true) {
+				switch (parser.next()) {
+				case XmlPullParser.START_TAG:
+					emptyTag = parser.isEmptyElementTag();
+					appendStartTag(sb);
+					if (emptyTag) {
+						sb.insert(sb.length() - 1, " /");
+					}
+					break;
+				case XmlPullParser.END_TAG:
+					if (parser.getDepth() == depth) {
+						return;
+					}
+					if (emptyTag) {
+						emptyTag = false;
+					} else {
+						sb.append("</").append(parser.getName()).append('>');
+					}
+					break;
+				case XmlPullParser.TEXT:
+					appendEscaped(sb, parser.getText());
+					break;
+				case XmlPullParser.END_DOCUMENT:
+					throw new XmlPullParserException("unexpected end of document", parser, null);
+				}
+			}
+		}
+		
+		void appendStartTag(StringBuilder sb) {
+			sb.append('<').append(parser.getName());
+			for (int i = 0; i < parser.getAttributeCount(); i++) {
+				sb.append(' ').append(parser.getAttributeName(i)).append("=\"");
+				appendEscaped(sb, parser.getAttributeValue(i));
+				sb.append('"');
+			}
+			sb.append('>');
+		}
+		
+		static void appendEscaped(StringBuilder sb, String text) {
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				switch (c) {
+				case '&':
+					sb.append("&amp;");
+					break;
+				case '<':
+					sb.append("&lt;");
+					break;
+				case '>':
+					sb.append("&gt;");
+					break;
+				case '"':
+					sb.append("&quot;");
+					break;
+				default:
+					sb.append(c);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.service.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import com.sun.syndication.feed.synd.SyndContent;
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndPerson;
+import com.sun.syndication.io.FeedException;
+import com.sun.syndication.io.SyndFeedInput;
+import com.sun.syndication.io.XmlReader;
+
+/**
+ * Parses feeds with ROME. ROME understands just about every feed format out there, but it builds the whole 
+ * document in memory before any of it can be used, so it is best kept for the formats {@link PullFeedParser} 
+ * doesn't handle.
+ */
+public class RomeFeedParser implements FeedParser {
+	@SuppressWarnings("unchecked")
+	public void parse(InputStream in, String contentType, FeedHandler handler) throws IOException, FeedParserException {
+		SyndFeed syndFeed;
+		try {
+			syndFeed = new SyndFeedInput().build(new XmlReader(in, contentType, true));
+		} catch (FeedException e) {
+			throw new FeedParserException("error parsing feed: " + e.getMessage(), e);
+		} catch (IllegalArgumentException e) {
+			// thrown when ROME doesn't recognize the format either
+			throw new FeedParserException("error parsing feed: " + e.getMessage(), e);
+		}
+		
+		ParsedFeed feed = new ParsedFeed();
+		feed.title = syndFeed.getTitle();
+		feed.link = syndFeed.getLink();
+		feed.uri = syndFeed.getUri();
+		feed.author = syndFeed.getAuthor();
+		feed.contributor = getFirstName(syndFeed.getContributors());
+		
+		if (!handler.startFeed(feed)) {
+			return;
+		}
+		
+		for (SyndEntry syndEntry : (List<SyndEntry>) syndFeed.getEntries()) {
+			if (!handler.entry(makeEntry(syndEntry))) {
+				break;
+			}
+		}
+		
+		handler.endFeed(feed);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private ParsedEntry makeEntry(SyndEntry syndEntry) {
+		ParsedEntry entry = new ParsedEntry();
+		entry.uri = syndEntry.getUri();
+		entry.link = syndEntry.getLink();
+		entry.title = syndEntry.getTitle();
+		entry.author = syndEntry.getAuthor();
+		entry.contributor = getFirstName(syndEntry.getContributors());
+		entry.publishedDate = syndEntry.getPublishedDate();
+		
+		// get the content (prefer HTML over plain text)
+		SyndContent bestContent = null;
+		for (SyndContent content : (List<SyndContent>) syndEntry.getContents()) {
+			if (bestContent == null) {
+				bestContent = content;
+				continue;
+			}
+			
+			if (content.getType() != null && bestContent.getType() == null) {
+				bestContent = content;
+				break;
+			}
+		}
+		
+		if (bestContent == null) {
+			// no content found? get it from the description then
+			bestContent = syndEntry.getDescription();
+		}
+		
+		if (bestContent != null) {
+			entry.content = bestContent.getValue();
+			// ROME uses both the Atom types ("html", "xhtml") and MIME types ("text/html")
+			if (bestContent.getType() != null && bestContent.getType().indexOf("html") != -1) {
+				entry.contentType = "text/html";
+			} else {
+				entry.contentType = "text/plain";
+			}
+		}
+		
+		return entry;
+	}
+	
+	private static String getFirstName(List<?> persons) {
+		if (persons == null || persons.isEmpty()) {
+			return null;
+		}
+		
+		return ((SyndPerson) persons.get(0)).getName();
+	}
+}
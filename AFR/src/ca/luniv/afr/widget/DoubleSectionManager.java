@@ -0,0 +1,39 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.widget;
+
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * Sections rows by a floating point column.
+ */
+public class DoubleSectionManager extends ListSectionManager<Double> {
+	public DoubleSectionManager(Context context, String column, List<? extends ListSectionGroup<Double>> sectionGroups) {
+		super(context, column, sectionGroups);
+	}
+
+	@Override
+	protected int compareValue(Double bound) {
+		return Double.compare(cursor.getDouble(column), bound.doubleValue());
+	}
+
+	@Override
+	protected Double getValueFromCursor() {
+		return cursor.getDouble(column);
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.widget;
+
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * Sections rows by an integer column.
+ */
+public class IntSectionManager extends ListSectionManager<Integer> {
+	public IntSectionManager(Context context, String column, List<? extends ListSectionGroup<Integer>> sectionGroups) {
+		super(context, column, sectionGroups);
+	}
+
+	@Override
+	protected int compareValue(Integer bound) {
+		int value = cursor.getInt(column);
+		int b = bound.intValue();
+		return value < b ? -1 : (value == b ? 0 : 1);
+	}
+
+	@Override
+	protected Integer getValueFromCursor() {
+		return cursor.getInt(column);
+	}
+}
@@ -15,9 +15,6 @@
  */
 package ca.luniv.afr.widget;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,9 +32,15 @@ import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.TextView;
 import ca.luniv.afr.R;
+import ca.luniv.afr.widget.ListSectionManager.Range.EndpointType;
 import ca.luniv.afr.widget.SectionedListAdapter.ListSection;
 
-public class ListSectionManager<T extends Comparable<T>> {
+/**
+ * Splits a cursor's rows into sections by the value of one column. There is a subclass for each type of 
+ * column, which compares the rows' values against the sections' bounds without boxing them, since this 
+ * is done for every row each time the list changes.
+ */
+public abstract class ListSectionManager<T extends Comparable<T>> {
 	public abstract static class ListSectionGroup<T extends Comparable<T>> {
 		protected String name;
 		protected boolean collapsible;
@@ -135,39 +138,38 @@ public class ListSectionManager<T extends Comparable<T>> {
 		
 		@Override
 		public boolean inSection(T value) {
-			int comp = value.compareTo(start);
+			return (startType == EndpointType.INFINITE || afterStart(value.compareTo(start))) &&
+				(endType == EndpointType.INFINITE || beforeEnd(value.compareTo(end)));
+		}
+		
+		/**
+		 * @param comp the value compared to the start of the range
+		 * @return if the value is past the start of the range
+		 */
+		public boolean afterStart(int comp) {
 			switch (startType) {
 			case EXCLUDED:
-				if (comp <= 0) {
-					return false;
-				}
-				break;
+				return comp > 0;
 			case INCLUDED:
-				if (comp < 0) {
-					return false;
-				}
-				break;
-			case INFINITE:
-				break;
+				return comp >= 0;
+			default:
+				return true;
 			}
-			
-			comp = value.compareTo(end);
+		}
+		
+		/**
+		 * @param comp the value compared to the end of the range
+		 * @return if the value is short of the end of the range
+		 */
+		public boolean beforeEnd(int comp) {
 			switch (endType) {
 			case EXCLUDED:
-				if (comp >= 0) {
-					return false;
-				}
-				break;
+				return comp < 0;
 			case INCLUDED:
-				if (comp > 0) {
-					return false;
-				}
-				break;
-			case INFINITE:
-				break;
+				return comp <= 0;
+			default:
+				return true;
 			}
-			
-			return true;
 		}
 		
 		@Override
@@ -186,50 +188,15 @@ public class ListSectionManager<T extends Comparable<T>> {
 	protected Cursor cursor;
 	protected List<? extends ListSectionGroup<T>> sectionGroups;
 	
-	protected Class<T> type;
-	protected Constructor<T> typeConstructor;
-	
 	protected String columnName;
 	protected int column;
-	protected Method columnGetMethod;
 	
-	public ListSectionManager(Context context, String column, List<? extends ListSectionGroup<T>> sectionGroups, Class<T> type) {
+	protected SectionCounter<T> sectionCounter;
+	
+	protected ListSectionManager(Context context, String column, List<? extends ListSectionGroup<T>> sectionGroups) {
 		this.context = context;
 		this.columnName = column;
 		this.sectionGroups = sectionGroups;
-		
-		// figure out the right method to use
-		String method;
-		Class<?> columnType;
-		if (type.equals(Double.class)) {
-			method = "getDouble";
-			columnType = Double.TYPE;
-		} else if (type.equals(Float.class)) {
-			method = "getFloat";
-			columnType = Float.TYPE;
-		} else if (type.equals(Integer.class)) {
-			method = "getInt";
-			columnType = Integer.TYPE;
-		} else if (type.equals(Long.class)) {
-			method = "getLong";
-			columnType = Long.TYPE;
-		} else if (type.equals(Short.class)) {
-			method = "getShort";
-			columnType = Short.TYPE;
-		} else if (type.equals(String.class)) {
-			method = "getString";
-			columnType = String.class;
-		} else {
-			throw new IllegalArgumentException("type is not a type supported by android.database.Cursor");
-		}
-		
-		// get the actual method object
-		try {
-			typeConstructor = type.getConstructor(columnType);
-			columnGetMethod = Cursor.class.getMethod(method, Integer.TYPE);
-		} catch (NoSuchMethodException e) {
-			throw new IllegalArgumentException("type's associated get method not found in android.database.Cursor", e);
-		}
 	}
 	
 	public ListSection[] getListSections(SectionedListAdapter adapter) {
@@ -237,6 +204,14 @@ public class ListSectionManager<T extends Comparable<T>> {
 			return null;
 		}
 
+		if (sectionCounter != null) {
+			int[] counts = sectionCounter.countSections(sectionGroups);
+			if (counts != null && sum(counts) == cursor.count()) {
+				return makeListSections(adapter, counts);
+			}
+			// the counts don't add up (some rows aren't in any section, or the data changed under us), so walk the rows
+		}
+
 		cursor.first();
 		ArrayList<ListSection> sections = new ArrayList<ListSection>(sectionGroups.size());
 
@@ -245,7 +220,7 @@ public class ListSectionManager<T extends Comparable<T>> {
 			section.start = cursor.position() + sections.size();
 			
 			while (!cursor.isAfterLast()) {
-				if (!sectionGroup.inSection(getValueFromCursor())) {
+				if (!inSection(sectionGroup)) {
 					break;
 				}
 				
@@ -254,6 +229,7 @@ public class ListSectionManager<T extends Comparable<T>> {
 			}
 			
 			if (section.count > 0) {
+				section.group = sectionGroup;
 				section.header = makeSectionHeaderView(section, sectionGroup);
 				section.header.setTag(section);
 				section.selectable = sectionGroup.collapsible;
@@ -264,6 +240,40 @@ public class ListSectionManager<T extends Comparable<T>> {
 		return sections.toArray(new ListSection[sections.size()]);
 	}
 
+	/**
+	 * Lays the sections out from their counts, without touching the cursor.
+	 */
+	private ListSection[] makeListSections(SectionedListAdapter adapter, int[] counts) {
+		ArrayList<ListSection> sections = new ArrayList<ListSection>(sectionGroups.size());
+		int row = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			
+			ListSectionGroup<T> sectionGroup = sectionGroups.get(i);
+			ListSection section = adapter.new ListSection();
+			section.start = row + sections.size();
+			section.count = counts[i];
+			section.group = sectionGroup;
+			section.header = makeSectionHeaderView(section, sectionGroup);
+			section.header.setTag(section);
+			section.selectable = sectionGroup.collapsible;
+			sections.add(section);
+			row += counts[i];
+		}
+		
+		return sections.toArray(new ListSection[sections.size()]);
+	}
+	
+	private static int sum(int[] counts) {
+		int sum = 0;
+		for (int count : counts) {
+			sum += count;
+		}
+		return sum;
+	}
+	
 	public View makeSectionHeaderView(ListSection section, ListSectionGroup<T> sectionGroup) {
 		ViewInflate inflater = (ViewInflate) context.getSystemService(Context.INFLATE_SERVICE);
 		View layout = inflater.inflate(R.layout.list_section_header, null, null);
@@ -297,31 +307,57 @@ public class ListSectionManager<T extends Comparable<T>> {
 	}
 	
 	/**
-	 * Returns the current row's section column value wrapped in its appropriate Java primitive wrapper class.
-	 * @return wrapped primitive value of the current row's section column
+	 * Checks if the current row belongs in a section. Ranges and groups are checked with 
+	 * {@link #compareValue(Comparable)}; any other kind of section is handed the boxed value.
 	 */
-	protected T getValueFromCursor() {
-		// Wee, type contortions ahoy! This is equivalent to: 
-		// T value = new T(cursor.get<primitive T>(column));
-		try {
-			return typeConstructor.newInstance(columnGetMethod.invoke(cursor, column));
-		// none of these should happen, since we are only using Java primitive wrapper classes 
-		} catch (IllegalAccessException e) {
-		} catch (InvocationTargetException e) {
-		} catch (InstantiationException e) {
+	@SuppressWarnings("unchecked")
+	protected boolean inSection(ListSectionGroup<T> sectionGroup) {
+		if (sectionGroup instanceof Range) {
+			Range<T> range = (Range<T>) sectionGroup;
+			return (range.startType == EndpointType.INFINITE || range.afterStart(compareValue(range.start))) &&
+				(range.endType == EndpointType.INFINITE || range.beforeEnd(compareValue(range.end)));
+		} else if (sectionGroup instanceof Group) {
+			return compareValue(((Group<T>) sectionGroup).group) == 0;
 		}
 		
-		return null;
+		return sectionGroup.inSection(getValueFromCursor());
 	}
 	
+	/**
+	 * Compares the current row's section column value to <code>bound</code>, without boxing the row's value.
+	 * @return less than, equal to or greater than 0 as the row's value is less than, equal to or greater than <code>bound</code>
+	 */
+	protected abstract int compareValue(T bound);
+	
+	/**
+	 * Returns the current row's section column value wrapped in its appropriate Java primitive wrapper class.
+	 * @return wrapped primitive value of the current row's section column
+	 */
+	protected abstract T getValueFromCursor();
+	
 	public Cursor getCursor() {
 		return cursor;
 	}
 	
+	public List<? extends ListSectionGroup<T>> getSectionGroups() {
+		return sectionGroups;
+	}
+	
+	public String getColumnName() {
+		return columnName;
+	}
+	
+	/**
+	 * @param sectionCounter counts the rows in each section up front, or null to count them by walking the rows
+	 */
+	public void setSectionCounter(SectionCounter<T> sectionCounter) {
+		this.sectionCounter = sectionCounter;
+	}
+	
 	public void setCursor(Cursor cursor) {
 		this.cursor = cursor;
 		if (cursor != null) {
 			column = cursor.getColumnIndex(columnName);
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
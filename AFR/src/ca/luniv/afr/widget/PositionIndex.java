@@ -0,0 +1,99 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.widget;
+
+/**
+ * Maps list positions to sections in O(log n). This is a Fenwick (binary indexed) tree over the number 
+ * of rows each section takes up in the list; changing one section's size, as when it is collapsed or 
+ * expanded, only touches O(log n) of the sums.
+ */
+final class PositionIndex {
+	// tree[i] holds the sum of the sizes of the sections (i - (i & -i), i], numbered from 1
+	private final int[] tree;
+	private final int[] sizes;
+	private int total;
+	
+	PositionIndex(int[] sizes) {
+		this.sizes = sizes.clone();
+		tree = new int[sizes.length + 1];
+		
+		// built in O(n) by pushing each partial sum up to its parent
+		for (int i = 1; i <= sizes.length; i++) {
+			tree[i] += sizes[i - 1];
+			int parent = i + (i & -i);
+			if (parent <= sizes.length) {
+				tree[parent] += tree[i];
+			}
+			total += sizes[i - 1];
+		}
+	}
+	
+	/**
+	 * @return the number of rows in all the sections
+	 */
+	int total() {
+		return total;
+	}
+	
+	int size(int section) {
+		return sizes[section];
+	}
+	
+	void setSize(int section, int size) {
+		int delta = size - sizes[section];
+		if (delta == 0) {
+			return;
+		}
+		
+		sizes[section] = size;
+		total += delta;
+		for (int i = section + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+	
+	/**
+	 * @return the position of the first row of the section
+	 */
+	int start(int section) {
+		int sum = 0;
+		for (int i = section; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+	
+	/**
+	 * @return the section the position falls in, or -1 if it's past the end
+	 */
+	int find(int position) {
+		if (position < 0 || position >= total) {
+			return -1;
+		}
+		
+		// walk down from the highest power of two, skipping every block that ends at or before the position
+		int section = 0;
+		int step = Integer.highestOneBit(sizes.length);
+		for (; step > 0; step >>= 1) {
+			int next = section + step;
+			if (next < tree.length && tree[next] <= position) {
+				section = next;
+				position -= tree[next];
+			}
+		}
+		return section;
+	}
+}
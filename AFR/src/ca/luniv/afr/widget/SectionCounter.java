@@ -0,0 +1,32 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.widget;
+
+import java.util.List;
+
+import ca.luniv.afr.widget.ListSectionManager.ListSectionGroup;
+
+/**
+ * Counts how many rows fall in each section without going through the rows, usually by asking the 
+ * database. This lets a {@link ListSectionManager} lay out its sections without moving the cursor.
+ */
+public interface SectionCounter<T extends Comparable<T>> {
+	/**
+	 * @return the number of rows in each of the section groups, in the same order, or null if they can't 
+	 * be counted (the rows are then walked instead)
+	 */
+	public int[] countSections(List<? extends ListSectionGroup<T>> sectionGroups);
+}
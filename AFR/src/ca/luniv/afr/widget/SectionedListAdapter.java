@@ -15,6 +15,8 @@
  */
 package ca.luniv.afr.widget;
 
+import java.util.IdentityHashMap;
+
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
@@ -35,6 +37,8 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 	private int count = -1;
 	
 	private ListSection[] sections;
+	// where each section starts in the list, allowing for the collapsed ones
+	private PositionIndex positions;
 	private ListSectionManager<? extends Comparable<?>> sectionManager;
 	
 	private boolean dataValid;
@@ -95,6 +99,10 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 		protected boolean collapsed;
 		protected int start;
 		protected int count;
+		// where the section is in the adapter's sections
+		int index;
+		// the group the section was made for
+		ListSectionManager.ListSectionGroup<?> group;
 
 		public View getHeader() {
 			return header;
@@ -118,11 +126,21 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 
 		public void setCollapsed(boolean collapsed) {
 			this.collapsed = collapsed;
-			// we need to recalculate the count
+			// only this section's size changes, so only its part of the index needs updating
+			if (positions != null && sections != null && index < sections.length && sections[index] == this) {
+				positions.setSize(index, visibleSize());
+			}
 			computeCount();
 			notifyChange(true);
 		}
 		
+		/**
+		 * @return the number of rows the section takes up in the list: its header, and its rows unless it's collapsed
+		 */
+		int visibleSize() {
+			return collapsed ? 1 : 1 + count;
+		}
+		
 		@Override
 		public String toString() {
 			StringBuilder sb = new StringBuilder().append('{');
@@ -187,6 +205,10 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 			cursor.registerContentObserver(contentObserver);
 			cursor.registerDataSetObserver(dataSetObserver);
 			
+			if (sectionManager != null) {
+				makeListSections();
+			}
+			
 			notifyDataSetChanged();
 		} else {
 			dataValid = false;
@@ -200,6 +222,7 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 	public void changeListSectionManager(ListSectionManager<? extends Comparable<?>> sectionManager, Cursor cursor) {
 		this.sectionManager = sectionManager;
 		this.sections = null;
+		this.positions = null;
 		
 		if (sectionManager != null) {
 			sectionManager.setCursor(cursor);
@@ -209,7 +232,52 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 	}
 	
 	private void makeListSections() {
+		ListSection[] old = sections;
 		sections = sectionManager.getListSections(this);
+		if (sections == null) {
+			positions = null;
+			return;
+		}
+		if (old != null) {
+			keepSectionState(old);
+		}
+		
+		int[] sizes = new int[sections.length];
+		for (int i = 0; i < sections.length; i++) {
+			sections[i].index = i;
+			sizes[i] = sections[i].visibleSize();
+		}
+		positions = new PositionIndex(sizes);
+	}
+	
+	/**
+	 * Sections that were there before the rows changed stay as they were: collapsed if they were 
+	 * collapsed, and with the same header (which shows whether it's collapsed).
+	 */
+	private void keepSectionState(ListSection[] old) {
+		IdentityHashMap<Object, ListSection> previous = new IdentityHashMap<Object, ListSection>(old.length);
+		for (ListSection section : old) {
+			if (section.group != null) {
+				previous.put(section.group, section);
+			}
+		}
+		
+		for (ListSection section : sections) {
+			ListSection before = previous.get(section.group);
+			if (before != null) {
+				section.collapsed = before.collapsed;
+				section.header = before.header;
+				section.header.setTag(section);
+			}
+		}
+	}
+	
+	/**
+	 * @return the section the position falls in, or null if there is no such position
+	 */
+	private ListSection findSection(int position) {
+		int section = positions.find(position);
+		return section == -1 ? null : sections[section];
 	}
 	
 	@Override
@@ -221,24 +289,10 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 	public boolean isSelectable(int position) {
 		if (dataValid && cursor != null && count > 0) {
 			if (sections != null) {
-				int currentSection = 0;
-				
-				for (ListSection section : sections) {
-					currentSection++;
-					
-					if (position == section.start) {
-						return section.selectable;
-					} 
-					
-					// if this section is collapsed, adjust the position and move to the next
-					if (section.collapsed) {
-						position += section.count;
-						continue;
-					}
-					
-					if (position <= section.start + section.count) {
-						return true;
-					}
+				ListSection section = findSection(position);
+				if (section != null) {
+					// the header is the only row of a section that might not be selectable
+					return position == positions.start(section.index) ? section.selectable : true;
 				}
 			} else {
 				return true;
@@ -262,9 +316,7 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 		count = 0;
 		if (dataValid && cursor != null) {
 			if (sections != null) {
-				for (ListSection section : sections) {
-					count += section.collapsed ? 1 : 1 + section.count;
-				}
+				count = positions.total();
 			} else {
 				count = cursor.count();
 			}
@@ -276,25 +328,16 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 	public Object getItem(int position) {		
 		if (dataValid && cursor != null && count > 0) {
 			if (sections != null) {
-				int currentSection = 0;
-				
-				for (ListSection section : sections) {
-					currentSection++;
-					
-					if (position == section.start) {
+				ListSection section = findSection(position);
+				if (section != null) {
+					int offset = position - positions.start(section.index);
+					if (offset == 0) {
 						return section;
-					} 
-					
-					// if this section is collapsed, adjust the position and move to the next
-					if (section.collapsed) {
-						position += section.count;
-						continue;
 					}
 					
-					if (position <= section.start + section.count) {
-						cursor.moveTo(position - currentSection);
-						return cursor;
-					}
+					// section.start counts the headers before it, which aren't rows in the cursor
+					cursor.moveTo(section.start - section.index + offset - 1);
+					return cursor;
 				}
 			} else {
 				cursor.moveTo(position);
@@ -314,6 +357,19 @@ public abstract class SectionedListAdapter extends BaseAdapter {
 		return 0;
 	}
 
+	/**
+	 * @return the position of the row with the id, or -1 if it isn't in the list (or its section is collapsed)
+	 */
+	public int getPosition(long id) {
+		int count = getCount();
+		for (int i = 0; i < count; i++) {
+			if (getItemId(i) == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	@Override
 	public boolean stableIds() {
 		return true;
@@ -0,0 +1,44 @@
+/*
+ * $Id$
+ *
+ * Copyright (C) 2007 James Gilbertson <azurite@telusplanet.net>
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package ca.luniv.afr.widget;
+
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * Sections rows by a text column.
+ */
+public class StringSectionManager extends ListSectionManager<String> {
+	public StringSectionManager(Context context, String column, List<? extends ListSectionGroup<String>> sectionGroups) {
+		super(context, column, sectionGroups);
+	}
+
+	@Override
+	protected int compareValue(String bound) {
+		// a missing value sorts before everything, as it does in SQLite
+		String value = cursor.getString(column);
+		if (value == null) {
+			return bound == null ? 0 : -1;
+		}
+		return bound == null ? 1 : value.compareTo(bound);
+	}
+
+	@Override
+	protected String getValueFromCursor() {
+		return cursor.getString(column);
+	}
+}